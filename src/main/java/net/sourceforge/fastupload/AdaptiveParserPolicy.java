@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ParserPolicy} that selects the mode of a request by its content
+ * length and the memory available now. A request not longer than
+ * <em>memoryCutoff</em>, a small form post for example, is always parsed in
+ * memory, and a request not shorter than <em>streamCutoff</em> or of unknown
+ * length is always streamed. A request between them is parsed in memory only
+ * if it takes no more than <em>maxHeapShare</em> of the free heap, and the
+ * {@link MemoryBudget} of the config has room for it. A hint of the caller
+ * overrides the selection.
+ * <p/>
+ * 
+ * The policy counts the requests of every mode, the counters are read while
+ * requests are parsed.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class AdaptiveParserPolicy implements ParserPolicy {
+
+	private long memoryCutoff = 0x10000;
+
+	private long streamCutoff = 0x1000000;
+
+	private double maxHeapShare = 0.05;
+
+	private final AtomicLong memoryCount = new AtomicLong();
+
+	private final AtomicLong streamCount = new AtomicLong();
+
+	/**
+	 * requests selected by the free heap or the memory budget, between the
+	 * cutoffs
+	 */
+	private final AtomicLong adaptedCount = new AtomicLong();
+
+	public AdaptiveParserPolicy() {
+		super();
+	}
+
+	/**
+	 * @param memoryCutoff
+	 *            max content length always parsed in memory
+	 * @param streamCutoff
+	 *            min content length always streamed
+	 */
+	public AdaptiveParserPolicy(long memoryCutoff, long streamCutoff) {
+		super();
+		this.memoryCutoff = memoryCutoff;
+		this.streamCutoff = streamCutoff;
+	}
+
+	public ParseMode select(UploadConfig config, long contentLength, ParseMode hint) {
+		ParseMode mode;
+		if (config.getRepository() == null)
+			mode = ParseMode.MEMORY;
+		else if (hint != null)
+			mode = hint;
+		else if (contentLength < 0 || contentLength >= streamCutoff)
+			mode = ParseMode.STREAM;
+		else if (contentLength <= memoryCutoff)
+			mode = ParseMode.MEMORY;
+		else {
+			adaptedCount.incrementAndGet();
+			mode = fits(config, contentLength) ? ParseMode.MEMORY : ParseMode.STREAM;
+		}
+		(mode == ParseMode.MEMORY ? memoryCount : streamCount).incrementAndGet();
+		return mode;
+	}
+
+	/**
+	 * @return true if the free heap and the memory budget have room for the
+	 *         request
+	 */
+	protected boolean fits(UploadConfig config, long contentLength) {
+		Runtime runtime = Runtime.getRuntime();
+		long free = runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+		if (contentLength > free * maxHeapShare)
+			return false;
+		MemoryBudget budget = config.getMemoryBudget();
+		return budget == null || contentLength <= budget.getLimit() - budget.getReserved();
+	}
+
+	public long getMemoryCutoff() {
+		return memoryCutoff;
+	}
+
+	public void setMemoryCutoff(long memoryCutoff) {
+		this.memoryCutoff = memoryCutoff;
+	}
+
+	public long getStreamCutoff() {
+		return streamCutoff;
+	}
+
+	public void setStreamCutoff(long streamCutoff) {
+		this.streamCutoff = streamCutoff;
+	}
+
+	public double getMaxHeapShare() {
+		return maxHeapShare;
+	}
+
+	/**
+	 * @param maxHeapShare
+	 *            max share of the free heap a request between the cutoffs
+	 *            takes in memory, 0.05 by default
+	 */
+	public void setMaxHeapShare(double maxHeapShare) {
+		this.maxHeapShare = maxHeapShare;
+	}
+
+	/**
+	 * @return number of requests selected to parse in memory
+	 */
+	public long getMemoryCount() {
+		return memoryCount.get();
+	}
+
+	/**
+	 * @return number of requests selected to stream
+	 */
+	public long getStreamCount() {
+		return streamCount.get();
+	}
+
+	/**
+	 * @return number of requests between the cutoffs, selected by the free
+	 *         heap and the memory budget
+	 */
+	public long getAdaptedCount() {
+		return adaptedCount.get();
+	}
+}
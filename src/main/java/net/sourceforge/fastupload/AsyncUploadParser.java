@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * A concrete class of {@link UploadParser} that parses the request body as a
+ * servlet 3.1 {@link ReadListener}. The container calls
+ * <em>onDataAvailable()</em> when bytes arrive, the parser reads only while
+ * <code>ServletInputStream.isReady()</code> returns true, so it never blocks
+ * a container thread on a slow client.
+ * <p/>
+ * 
+ * The bytes are read into one fixed buffer of <em>0x2000</em> bytes and pushed
+ * to a {@link MultipartParser} in place as {@link StreamUploadParser} does, the
+ * parse state is kept between two notifications. The {@link UploadCallback} is
+ * called when all bytes are read, or reading failed. The bytes the request
+ * reserved from the disk quota and not written are released then, the memory
+ * budget is released as well if it failed.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class AsyncUploadParser extends UploadParser implements ReadListener {
+
+	private int bufferSize = 0x2000;
+
+	private ServletInputStream servletInputStream;
+
+	private UploadCallback callback;
+
+	private MultiPartCollector collector;
+
+	private MultipartParser parser;
+
+	private byte[] buffer = new byte[bufferSize];
+
+	private int start, end;
+
+	private volatile boolean done;
+
+	public AsyncUploadParser(ServletInputStream inputSteam, FileFactory fileFactory, byte[] boundary, UploadCallback callback) {
+		this(inputSteam, new UploadContext(fileFactory.getConfig(), fileFactory.getEncoding()), boundary, callback);
+	}
+
+	public AsyncUploadParser(ServletInputStream inputSteam, UploadContext context, byte[] boundary, UploadCallback callback) {
+		super(inputSteam, context, boundary);
+		this.servletInputStream = inputSteam;
+		this.callback = callback;
+		this.collector = new MultiPartCollector(context, files);
+		this.parser = new MultipartParser(boundary, encoding, collector, bufferSize >> 1);
+		this.collector.setParser(parser);
+	}
+
+	/**
+	 * register the parser as the {@link ReadListener} of the input stream, the
+	 * container starts to notify it
+	 */
+	public void start() {
+		servletInputStream.setReadListener(this);
+	}
+
+	public void onDataAvailable() throws IOException {
+		// the container may notify again after a failure
+		if (done)
+			return;
+		try {
+			int c;
+			while (servletInputStream.isReady()) {
+				if (start == end) {
+					start = end = 0;
+				} else if (end == buffer.length) {
+					// same as StreamUploadParser, a split content header
+					// never exceed half of the buffer
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					end -= start;
+					start = 0;
+				}
+				if ((c = servletInputStream.read(buffer, end, buffer.length - end)) == -1)
+					break;
+				readBytes += c;
+				end += c;
+				start = parser.parse(buffer, start, end);
+			}
+		} catch (IOException e) {
+			fail(e);
+		} catch (RuntimeException e) {
+			// ThresholdException, etc.
+			fail(e);
+		}
+	}
+
+	public void onAllDataRead() throws IOException {
+		if (done)
+			return;
+		done = true;
+		collector.close();
+		context.finishDisk();
+		callback.completed(files);
+	}
+
+	public void onError(Throwable t) {
+		if (done)
+			return;
+		fail(t);
+	}
+
+	private void fail(Throwable t) {
+		done = true;
+		try {
+			collector.close();
+			servletInputStream.close();
+		} catch (IOException e) {
+			// the failure reported is the cause
+		}
+		context.releaseMemory();
+		context.finishDisk();
+		callback.failed(t);
+	}
+
+	/**
+	 * @return true if all bytes are read or reading failed
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * return the parsed list after the callback is notified
+	 * 
+	 * @throws IllegalStateException
+	 *             if the parsing does not complete
+	 */
+	@Override
+	public List<MultiPart> parseList() throws IOException {
+		if (!done)
+			throw new IllegalStateException("asynchronous parsing does not complete");
+		return files;
+	}
+}
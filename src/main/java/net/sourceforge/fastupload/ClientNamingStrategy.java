@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+/**
+ * Names a file with the file name the client sent, a file is overwritten by
+ * another part of the same file name.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class ClientNamingStrategy implements NamingStrategy {
+
+	public String tempName(ContentHeaderMap header) {
+		return header.getFileName();
+	}
+
+	/**
+	 * @return null, the client file name is kept
+	 */
+	public String closedName(MultiPart part) {
+		return null;
+	}
+}
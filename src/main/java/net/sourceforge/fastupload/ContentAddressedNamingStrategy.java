@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+/**
+ * Names a file with the hex digest of its content, the digest is computed
+ * while the part is parsed, and the temporary file is renamed to the digest
+ * after the part is closed. A file of the digest is never replaced, if it
+ * exists, the part of the same content keeps its temporary name, so every
+ * part has a file of its own. Use a {@link DedupStore} to share the files of
+ * the same content.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class ContentAddressedNamingStrategy implements NamingStrategy {
+
+	private static final char[] _HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	private final String algorithm;
+
+	/**
+	 * name files with the SHA-256 digest
+	 */
+	public ContentAddressedNamingStrategy() {
+		this("SHA-256");
+	}
+
+	/**
+	 * @param algorithm
+	 *            a digest algorithm as
+	 *            {@link FileFactory#setDigestAlgorithms(String)} accepts
+	 */
+	public ContentAddressedNamingStrategy(String algorithm) {
+		super();
+		this.algorithm = algorithm;
+	}
+
+	public String tempName(ContentHeaderMap header) {
+		return RandomNamingStrategy.generate();
+	}
+
+	/**
+	 * @return the hex digest of the content
+	 */
+	public String closedName(MultiPart part) {
+		byte[] digest = part.getDigest(algorithm);
+		return digest == null ? null : hex(digest);
+	}
+
+	static String hex(byte[] b) {
+		char[] chars = new char[b.length << 1];
+		for (int i = 0; i < b.length; i++) {
+			chars[i << 1] = _HEX[(b[i] >>> 4) & 0xf];
+			chars[(i << 1) + 1] = _HEX[b[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A store of the content of file parts by the digest, shared by the
+ * {@link FileFactory} objects of an application. A part in the repository is
+ * hashed while it is parsed, and is moved to the blob of its digest when it is
+ * closed, such as <em>directory/3f/a0/3fa0...</em>. If the blob exists, the
+ * part is a duplicate, its temporary file is deleted and the part refers to
+ * the blob. The blob directory is the index, no other file is kept. A
+ * compressed file is kept in a blob of its own, <em>3fa0....z</em>, and a
+ * text part transcoded to another charset is not stored, as the bytes of the
+ * file differ from the bytes of the digest.
+ * <p/>
+ * 
+ * <code>toFile()</code> of a stored part creates a hard link to the blob, or
+ * copies it if the file system does not support links, the blob is never
+ * moved or deleted by a part. The links count the references of a blob,
+ * <code>purge()</code> deletes the blobs no file links to. A link is the blob
+ * itself, the file <code>toFile()</code> gives must be treated as read only,
+ * writing to it changes the content of every part of the digest, copy it to
+ * modify it. An existing file is never replaced by a link.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class DedupStore {
+
+	private static final String _COMPRESSED_SUFFIX = ".z";
+
+	private final File directory;
+
+	private final String algorithm;
+
+	private final ShardedRepository blobs;
+
+	private final AtomicLong duplicateCount = new AtomicLong();
+
+	private final AtomicLong duplicateBytes = new AtomicLong();
+
+	/**
+	 * a duplicate refers to a blob under the read lock, <code>purge()</code>
+	 * deletes a blob under the write lock
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * a store of the SHA-256 digests
+	 * 
+	 * @param directory
+	 *            directory of the blobs, on the file system of the repository
+	 */
+	public DedupStore(String directory) {
+		this(directory, "SHA-256");
+	}
+
+	/**
+	 * @param directory
+	 *            directory of the blobs, on the file system of the repository
+	 * @param algorithm
+	 *            a digest algorithm as
+	 *            {@link FileFactory#setDigestAlgorithms(String)} accepts
+	 */
+	public DedupStore(String directory, String algorithm) {
+		super();
+		this.directory = new File(directory);
+		this.algorithm = algorithm;
+		this.blobs = new ShardedRepository(directory, 2);
+	}
+
+	/**
+	 * move the file to the blob of the digest, or delete it if the blob exists
+	 * 
+	 * @param file
+	 *            a closed file of the repository
+	 * @param digest
+	 *            digest of the content bytes in the request
+	 * @param compressed
+	 *            true if the file is compressed
+	 * @return the blob
+	 * @throws IOException
+	 */
+	File put(File file, byte[] digest, boolean compressed) throws IOException {
+		// the blob is sharded by the first bytes of the digest
+		File blob = new File(blobs.resolve(blobName(digest, compressed), (digest[0] & 0xff) | (digest[1] & 0xff) << 8));
+		if (refer(blob)) {
+			duplicateCount.incrementAndGet();
+			duplicateBytes.addAndGet(file.length());
+			Files.delete(file.toPath());
+			return blob;
+		}
+		try {
+			// a blob of the same content replaces it in a race, which is
+			// harmless
+			Files.move(file.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			// another file system, copy it beside the blob first, with a
+			// name of its own for every writer
+			Path tmp = new File(blob.getPath() + "." + RandomNamingStrategy.generate()).toPath();
+			Files.move(file.toPath(), tmp);
+			Files.move(tmp, blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		return blob;
+	}
+
+	/**
+	 * touch the blob if it exists, so <code>purge()</code> keeps it for
+	 * <em>maxAge</em> at least
+	 * 
+	 * @return false if the blob does not exist
+	 */
+	private boolean refer(File blob) {
+		lock.readLock().lock();
+		try {
+			return blob.setLastModified(System.currentTimeMillis());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static String blobName(byte[] digest, boolean compressed) {
+		String hex = ContentAddressedNamingStrategy.hex(digest);
+		return compressed ? hex + _COMPRESSED_SUFFIX : hex;
+	}
+
+	/**
+	 * link <em>dest</em> to the blob, copy the blob if the file system does not
+	 * support hard links. An existing <em>dest</em> is kept, as it may be a
+	 * link to another blob, or a file of the application.
+	 * 
+	 * @return false if <em>dest</em> exists
+	 * @throws IOException
+	 */
+	static boolean link(File blob, File dest) throws IOException {
+		try {
+			Files.createLink(dest.toPath(), blob.toPath());
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} catch (UnsupportedOperationException e) {
+			return copyNew(blob, dest);
+		} catch (IOException e) {
+			// another file system
+			return copyNew(blob, dest);
+		}
+		return true;
+	}
+
+	/**
+	 * copy the blob to <em>dest</em> without the option REPLACE_EXISTING
+	 */
+	private static boolean copyNew(File blob, File dest) throws IOException {
+		try {
+			Files.copy(blob.toPath(), dest.toPath());
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the content of the digest is stored, compressed or not
+	 */
+	public boolean contains(byte[] digest) {
+		return getBlob(digest, false).exists() || getBlob(digest, true).exists();
+	}
+
+	/**
+	 * @return the uncompressed blob of the digest, it may not exist
+	 */
+	public File getBlob(byte[] digest) {
+		return getBlob(digest, false);
+	}
+
+	/**
+	 * @param compressed
+	 *            true for the compressed blob
+	 * @return the blob of the digest, it may not exist
+	 */
+	public File getBlob(byte[] digest, boolean compressed) {
+		// the same separator as the sharded repository puts the blob with
+		String hex = ContentAddressedNamingStrategy.hex(digest);
+		return new File(directory.getPath() + '/' + hex.substring(0, 2) + '/' + hex.substring(2, 4) + '/'
+				+ blobName(digest, compressed));
+	}
+
+	/**
+	 * delete the blobs older than <em>maxAge</em> which no file but the blob
+	 * links to. No blob is deleted if the file system does not count links.
+	 * 
+	 * @param maxAge
+	 *            in milliseconds, keep it longer than a request lasts, as a
+	 *            part not moved yet refers to its blob without a link. A
+	 *            blob is touched whenever a duplicate refers to it.
+	 * @return count of the deleted blobs
+	 * @throws IOException
+	 */
+	public int purge(long maxAge) throws IOException {
+		long before = System.currentTimeMillis() - maxAge;
+		int c = 0;
+		File[] first = directory.listFiles();
+		if (first == null)
+			return 0;
+		for (File level1 : first) {
+			File[] second = level1.listFiles();
+			if (second == null)
+				continue;
+			for (File level2 : second) {
+				File[] files = level2.listFiles();
+				if (files == null)
+					continue;
+				for (File blob : files) {
+					lock.writeLock().lock();
+					try {
+						if (blob.lastModified() < before && links(blob) == 1 && blob.delete())
+							c++;
+					} finally {
+						lock.writeLock().unlock();
+					}
+				}
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return count of the hard links of the file, 0 if unknown
+	 */
+	private static int links(File file) {
+		try {
+			return (Integer) Files.getAttribute(file.toPath(), "unix:nlink");
+		} catch (UnsupportedOperationException e) {
+			return 0;
+		} catch (IllegalArgumentException e) {
+			return 0;
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return count of the parts found in the store
+	 */
+	public long getDuplicateCount() {
+		return duplicateCount.get();
+	}
+
+	/**
+	 * @return bytes of the files not stored as they are found in the store
+	 */
+	public long getDuplicateBytes() {
+		return duplicateBytes.get();
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A file part that keeps its content in memory till the content exceeds
+ * <em>memoryThreshold</em>, then it spills the content to a temporary file in
+ * the repository and writes the next bytes to the file. So a small file part
+ * costs no file creating and deleting, and a large one does not hold the heap.
+ * <p/>
+ * 
+ * The part writes to a {@link MultiPartBinaryFile} or a
+ * {@link MultiPartTextFile} after it spills, as {@link FileFactory} creates for
+ * the repository. <code>toFile()</code> of a part in memory writes the target
+ * file in the same way, the temporary file is never created.
+ * 
+ * @see FileFactory#setMemoryThreshold(int)
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class DeferredMultiPart extends MultiPart {
+
+	/**
+	 * initial buffer size, the buffer doubles till the memory threshold
+	 */
+	private static final int _INITIAL_BUFFER_SIZE = 0x400;
+
+	private int memoryThreshold;
+
+	/**
+	 * charset encoding of the request, to create {@link MultiPartTextFile}
+	 */
+	private String encoding;
+
+	/**
+	 * compression level of the temporary file
+	 */
+	private int compressionLevel;
+
+	private byte[] buffer;
+
+	private int count;
+
+	/**
+	 * the temporary file after spilling
+	 */
+	private MultiPartDiskFile diskFile;
+
+	/**
+	 * charged with the bytes of the temporary file, null if no disk quota
+	 */
+	private QuotaReservation reservation;
+
+	private NamingStrategy namingStrategy;
+
+	private DedupStore dedupStore;
+
+	/**
+	 * @param name
+	 *            full name of the temporary file
+	 * @param charset
+	 * @param memoryThreshold
+	 *            max length of content kept in memory
+	 * @throws IOException
+	 */
+	public DeferredMultiPart(String name, String charset, int memoryThreshold) throws IOException {
+		super(name, charset);
+		this.memoryThreshold = memoryThreshold;
+	}
+
+	@Override
+	protected void append(byte[] buff, int off, int len) throws IOException {
+		super.append(buff, off, len);
+		if (diskFile == null && count + len > memoryThreshold)
+			spill();
+		if (diskFile != null) {
+			diskFile.append(buff, off, len);
+		} else {
+			if (buffer == null || count + len > buffer.length) {
+				int size = buffer == null ? _INITIAL_BUFFER_SIZE : buffer.length << 1;
+				while (size < count + len)
+					size <<= 1;
+				buffer = buffer == null ? new byte[Math.min(size, memoryThreshold)] : Arrays.copyOf(buffer, Math.min(size, memoryThreshold));
+			}
+			System.arraycopy(buff, off, buffer, count, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * create the temporary file and write the bytes in memory to it
+	 */
+	private void spill() throws IOException {
+		diskFile = createDiskFile(getName(), compressionLevel);
+		diskFile.setReservation(reservation);
+		diskFile.setNamingStrategy(namingStrategy);
+		diskFile.setDedupStore(dedupStore);
+		if (count > 0)
+			diskFile.append(buffer, 0, count);
+		buffer = null;
+		count = 0;
+	}
+
+	private MultiPartDiskFile createDiskFile(String name, int compressionLevel) throws IOException {
+		MultiPartDiskFile file;
+		if (contentHeaderMap.isTextable()) {
+			MultiPartTextFile mptf = new MultiPartTextFile(name, charset);
+			mptf.setEncoding(encoding);
+			file = mptf;
+		} else {
+			file = new MultiPartBinaryFile(name, charset);
+		}
+		file.setContentHeaderMap(contentHeaderMap);
+		file.setCompressionLevel(compressionLevel);
+		return file;
+	}
+
+	@Override
+	protected void close() throws IOException {
+		closed = true;
+		if (diskFile != null) {
+			diskFile.close();
+			// the digests are computed by the deferred part
+			diskFile.settle(this);
+			setName(diskFile.getName());
+		}
+	}
+
+	/**
+	 * move the temporary file to <em>name</em>, or write the bytes in memory
+	 * to it
+	 */
+	@Override
+	public boolean toFile(String name) throws IOException {
+		if (diskFile != null)
+			return diskFile.toFile(name);
+		// the target is never compressed
+		MultiPartDiskFile file = createDiskFile(name, 0);
+		if (count > 0)
+			file.append(buffer, 0, count);
+		file.close();
+		return true;
+	}
+
+	/**
+	 * delete the temporary file after spilling, or drop the bytes in memory
+	 * 
+	 * @return true if the content is deleted
+	 */
+	public boolean delete() {
+		buffer = null;
+		count = 0;
+		return diskFile == null || diskFile.delete();
+	}
+
+	/**
+	 * open an input stream of the temporary file, or of the bytes in memory,
+	 * which are not converted with the charset
+	 */
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if (diskFile != null)
+			return diskFile.getInputStream();
+		return new ByteArrayInputStream(buffer == null ? new byte[0] : buffer, 0, count);
+	}
+
+	/**
+	 * return the bytes in memory, it does not support the operation after
+	 * spilling as {@link MultiPartDiskFile}
+	 */
+	@Override
+	public byte[] getContentBuffer() {
+		if (diskFile != null)
+			return diskFile.getContentBuffer();
+		return buffer == null ? new byte[0] : Arrays.copyOf(buffer, count);
+	}
+
+	/**
+	 * @return true if the content is kept in memory
+	 */
+	public boolean isInMemory() {
+		return diskFile == null;
+	}
+
+	public int getMemoryThreshold() {
+		return memoryThreshold;
+	}
+
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * close and delete the content of a rejected part
+	 */
+	void discard() throws IOException {
+		closed = true;
+		if (diskFile != null)
+			diskFile.discard();
+		delete();
+	}
+
+	void setDedupStore(DedupStore dedupStore) {
+		this.dedupStore = dedupStore;
+	}
+
+	void setNamingStrategy(NamingStrategy namingStrategy) {
+		this.namingStrategy = namingStrategy;
+	}
+
+	void setReservation(QuotaReservation reservation) {
+		this.reservation = reservation;
+	}
+
+	public void setEncoding(String encoding) {
+		this.encoding = encoding;
+	}
+}
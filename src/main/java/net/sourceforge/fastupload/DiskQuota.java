@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A quota of the bytes in the repository, share one object by the
+ * {@link FileFactory} objects of a repository. {@link FastUploadParser}
+ * reserves the content length of a request before it is streamed into the
+ * repository, and a request exceeding the quota is rejected with a
+ * {@link net.sourceforge.fastupload.exception.ThresholdException} before a byte
+ * is written. Every byte written to a {@link MultiPartDiskFile} is charged to
+ * the reservation, the reservation grows from the quota if the content length
+ * is unknown. The bytes not written are released after parsing, and the bytes
+ * of a file are released when <code>toFile()</code> moves it out or it is
+ * deleted.
+ * <p/>
+ * 
+ * A request may be charged to a tenant as well, with the key set to the
+ * request attribute {@link #TENANT_ATTRIBUTE}, the bytes of every tenant are
+ * limited by <em>tenantLimit</em>. The counters are updated by
+ * compare-and-set without locking.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class DiskQuota {
+
+	/**
+	 * name of the request attribute of the tenant key
+	 */
+	public static final String TENANT_ATTRIBUTE = "net.sourceforge.fastupload.tenant";
+
+	private final long limit;
+
+	private final long tenantLimit;
+
+	private final AtomicLong reserved = new AtomicLong();
+
+	private final ConcurrentMap<String, AtomicLong> tenants = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * @param limit
+	 *            max bytes of the repository
+	 */
+	public DiskQuota(long limit) {
+		this(limit, 0);
+	}
+
+	/**
+	 * @param limit
+	 *            max bytes of the repository
+	 * @param tenantLimit
+	 *            max bytes of a tenant, 0 if unlimited
+	 */
+	public DiskQuota(long limit, long tenantLimit) {
+		super();
+		this.limit = limit;
+		this.tenantLimit = tenantLimit;
+	}
+
+	/**
+	 * reserve the bytes for the tenant if neither the quota nor the tenant
+	 * exceeds the limit
+	 * 
+	 * @param tenant
+	 *            key of the tenant, null if none
+	 * @return false if the bytes exceed the quota
+	 */
+	public boolean tryReserve(String tenant, long bytes) {
+		if (!add(reserved, bytes, limit))
+			return false;
+		if (tenant == null)
+			return true;
+		if (add(tenantCounter(tenant), bytes, tenantLimit > 0 ? tenantLimit : Long.MAX_VALUE))
+			return true;
+		reserved.addAndGet(-bytes);
+		return false;
+	}
+
+	/**
+	 * release the bytes reserved for the tenant
+	 * 
+	 * @param tenant
+	 *            key of the tenant, null if none
+	 */
+	public void release(String tenant, long bytes) {
+		reserved.addAndGet(-bytes);
+		if (tenant != null)
+			tenantCounter(tenant).addAndGet(-bytes);
+	}
+
+	private static boolean add(AtomicLong counter, long bytes, long max) {
+		for (;;) {
+			long current = counter.get();
+			if (bytes > max - current)
+				return false;
+			if (counter.compareAndSet(current, current + bytes))
+				return true;
+		}
+	}
+
+	private AtomicLong tenantCounter(String tenant) {
+		AtomicLong counter = tenants.get(tenant);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = tenants.putIfAbsent(tenant, created);
+			if (counter == null)
+				counter = created;
+		}
+		return counter;
+	}
+
+	/**
+	 * @return bytes reserved in the repository
+	 */
+	public long getReserved() {
+		return reserved.get();
+	}
+
+	/**
+	 * @return bytes reserved for the tenant
+	 */
+	public long getReserved(String tenant) {
+		AtomicLong counter = tenants.get(tenant);
+		return counter == null ? 0 : counter.get();
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public long getTenantLimit() {
+		return tenantLimit;
+	}
+}
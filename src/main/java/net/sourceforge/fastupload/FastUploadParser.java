@@ -21,9 +21,11 @@
 package net.sourceforge.fastupload;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 
 import net.sourceforge.fastupload.exception.FileUploadParserException;
@@ -134,6 +136,66 @@ import net.sourceforge.fastupload.exception.ThresholdException;
  * 
  * <li><code>fileFactory.setThreshold(200000);</code> limit parse content length of a part excludes headers, does not exceed the threshold. throw a runtime type of {@link ThresholdException} 
  * <li><code>fileFactory.setMaxContentLength(2000000);</code> limit parse a content length of current multipart request, does not exceed the value. throw a runtime type of {@link ThresholdException}
+ * <li><code>fileFactory.setMemoryThreshold(0x10000);</code> keep a file part in memory till its length exceeds the value, then spill it to a temporary file of the repository, see {@link DeferredMultiPart}
+ * <li><code>fileFactory.setMappedWrite(true);</code> write a binary file part through a memory mapped region when the content length of the request is known, see {@link MultiPartBinaryFile}
+ * <li><code>fileFactory.setMemoryBudget(budget);</code> reserve the content length of a request parsed in memory from a {@link MemoryBudget} shared by the process, call <code>close()</code> of the parser to release it
+ * <li><code>fileFactory.setParserPolicy(new AdaptiveParserPolicy());</code> select the {@link ParseMode} of every request by its content length and the free memory, small requests are parsed in memory and large ones are streamed into the repository, see <code>getParseMode()</code>
+ * <li><code>fileFactory.setShardLevels(2);</code> spread the files of the repository over two levels of hex sub directories, such as <em>repository/3f/a0/name</em>, a flat directory slows down creating files at a high rate
+ * <li><code>fileFactory.setNamingStrategy(new ContentAddressedNamingStrategy());</code> name the files of the repository with a {@link NamingStrategy}, by a random name, the client file name or the digest of the content
+ * <li><code>fileFactory.setDedupStore(new DedupStore(blobs));</code> keep one blob of the same content in a {@link DedupStore}, a duplicate part drops its temporary file and <code>toFile()</code> links to the blob
+ * <li><code>fileFactory.setDiskQuota(quota);</code> charge the files written to the repository to a {@link DiskQuota} shared by the factories of the repository, a request streamed into it reserves its content length and is rejected at once if the quota is exceeded
+ * <li><code>new FastUploadParser(request, fileFactory.getConfig());</code> parse with the immutable {@link UploadConfig} of a factory, one config is shared by the requests of all threads, see {@link UploadContext}
+ *
+ * <h2>Streaming Parts</h2>
+ * <code>parseStream()</code> returns a {@link PartStream}, it hands over a
+ * part when the content header is parsed, and the content of the part is read
+ * from the request while the caller reads <code>getInputStream()</code>. No
+ * part is kept in memory or in the repository.
+ * 
+ * <pre>
+ * PartStream parts = FastUploadParser.parseStream(request, fileFactory);
+ * while (parts.hasNext()) {
+ * 	MultiPart e = parts.next();
+ * 	if (e.isFile())
+ * 		copy(e.getInputStream(), sink);
+ * }
+ * </pre>
+ * 
+ * <h2>Asynchronous Parsing</h2>
+ * In a servlet 3.1 container, <code>parseAsync()</code> parses the request
+ * with a <code>ReadListener</code>, the bytes are read and parsed when the
+ * container notifies they are available, no container thread waits for a slow
+ * client. The servlet must support asynchronous mode, and completes the
+ * <code>AsyncContext</code> in the callback.
+ * 
+ * <pre>
+ * final AsyncContext asyncContext = request.startAsync();
+ * FastUploadParser.parseAsync(asyncContext, fileFactory, new UploadCallback() {
+ * 	public void completed(List&lt;MultiPart&gt; parts) {
+ * 		// handle the parts
+ * 		asyncContext.complete();
+ * 	}
+ * 
+ * 	public void failed(Throwable t) {
+ * 		asyncContext.complete();
+ * 	}
+ * });
+ * </pre>
+ * 
+ * <h2>Resumable Upload</h2>
+ * <code>parseResumable()</code> parses a chunk of a large file sent by several
+ * requests, the chunk is written at its offset of a session file in the
+ * {@link SessionStore}, and the completed file is returned as a part with the
+ * last chunk. A client resumes a broken upload from the offset of the
+ * {@link UploadSession}.
+ * 
+ * <pre>
+ * SessionStore store = new FileSessionStore(repository); // one for all requests
+ * ResumableUploadParser parser = FastUploadParser.parseResumable(request, fileFactory, store);
+ * List&lt;MultiPart&gt; parts = parser.parseList();
+ * response.setHeader(&quot;Upload-Id&quot;, parser.getUploadId());
+ * response.setHeader(&quot;Upload-Offset&quot;, String.valueOf(parser.getSession().getOffset()));
+ * </pre>
  *
  * @since 0.5.1
  * 
@@ -149,6 +211,14 @@ public class FastUploadParser {
 	private final String _HEADER_CONTENT_TYPE = "Content-type";
 	private final String _BOUNDARY_PREFIX = "--";
 	private final String _DEFALT_ENCODING = "iso-8859-1";
+	private static final String _HEADER_UPLOAD_ID = "Upload-Id";
+	private static final String _HEADER_CONTENT_RANGE = "Content-Range";
+
+	/**
+	 * bytes reserved from the memory budget for a request of unknown length
+	 * before reading, the slabs read beyond it are reserved one by one
+	 */
+	private static final long _UNKNOWN_LENGTH_RESERVE = 0x2000;
 
 	private byte[] boundary;
 
@@ -171,9 +241,24 @@ public class FastUploadParser {
 	private UploadParser uploadParser;
 
 	/**
-	 * default FileFactory
+	 * configuration shared by requests
 	 */
-	private FileFactory fileFactory = FileFactory.getInstance();
+	private UploadConfig config;
+
+	/**
+	 * state of parsing the request
+	 */
+	private UploadContext context;
+
+	/**
+	 * the mode the caller prefers, null if none
+	 */
+	private ParseMode hint;
+
+	/**
+	 * the mode the request is parsed in
+	 */
+	private ParseMode parseMode;
 
 	/**
 	 * default constructor with <code>HttpServletRequest</code>
@@ -182,9 +267,7 @@ public class FastUploadParser {
 	 *            {@link HttpServletRequest}
 	 */
 	public FastUploadParser(HttpServletRequest request) throws IOException {
-		super();
-		this.request = request;
-		this.init();
+		this(request, FileFactory.getInstance().getConfig(), true);
 	}
 
 	/**
@@ -196,30 +279,264 @@ public class FastUploadParser {
 	 * @throws IOException
 	 */
 	public FastUploadParser(HttpServletRequest request, FileFactory fileFactory) throws IOException {
+		this(request, fileFactory.getConfig(), true);
+	}
+
+	/**
+	 * constructor with <code>HttpServletRequest</code> and an
+	 * <code>UploadConfig</code> shared by requests
+	 * 
+	 * @param request
+	 * @param config
+	 * @throws IOException
+	 */
+	public FastUploadParser(HttpServletRequest request, UploadConfig config) throws IOException {
+		this(request, config, true);
+	}
+
+	/**
+	 * constructor with a hint of the parse mode to the {@link ParserPolicy} of
+	 * the config
+	 * 
+	 * @param request
+	 * @param config
+	 * @param hint
+	 *            the mode the caller prefers, null if none
+	 * @throws IOException
+	 */
+	public FastUploadParser(HttpServletRequest request, UploadConfig config, ParseMode hint) throws IOException {
 		super();
 		this.request = request;
-		this.fileFactory = fileFactory;
+		this.config = config;
+		this.hint = hint;
 		this.init();
 	}
 
 	/**
-	 * parse enctype, content length, boundary and encoding
+	 * @param createParser
+	 *            false if the caller creates the parser, the constructor
+	 *            parses headers and admits the request only
+	 */
+	private FastUploadParser(HttpServletRequest request, UploadConfig config, boolean createParser) throws IOException {
+		super();
+		this.request = request;
+		this.config = config;
+		if (createParser) {
+			this.init();
+		} else {
+			this.parseHeaders();
+			this.admit();
+		}
+	}
+
+	/**
+	 * parse the request of the <code>AsyncContext</code> with the default
+	 * {@link FileFactory} asynchronously
 	 * 
+	 * @param asyncContext
+	 * @param callback
+	 *            be called when all bytes are parsed or parsing failed
+	 * @return the parser, it reports read bytes while parsing
 	 * @throws IOException
+	 * @since 0.5.2
 	 */
-	private void init() throws IOException {
+	public static FastUploadParser parseAsync(AsyncContext asyncContext, UploadCallback callback) throws IOException {
+		return parseAsync(asyncContext, FileFactory.getInstance(), callback);
+	}
+
+	/**
+	 * parse the request of the <code>AsyncContext</code> asynchronously, the
+	 * method registers a <code>ReadListener</code> and returns at once. The
+	 * request is admitted and the parts are created as the synchronous way,
+	 * in memory or in the repository of the {@link FileFactory}, close the
+	 * parser when the parts are not used any more.
+	 * 
+	 * @param asyncContext
+	 * @param fileFactory
+	 * @param callback
+	 *            be called when all bytes are parsed or parsing failed
+	 * @return the parser, it reports read bytes while parsing
+	 * @throws IOException
+	 * @since 0.5.2
+	 */
+	public static FastUploadParser parseAsync(AsyncContext asyncContext, FileFactory fileFactory, UploadCallback callback) throws IOException {
+		HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+		FastUploadParser fastUploadParser = new FastUploadParser(request, fileFactory.getConfig(), false);
+		boolean started = false;
+		try {
+			AsyncUploadParser asyncUploadParser = new AsyncUploadParser(request.getInputStream(), fastUploadParser.context,
+					fastUploadParser.boundary, callback);
+			fastUploadParser.uploadParser = asyncUploadParser;
+			asyncUploadParser.start();
+			started = true;
+		} finally {
+			if (!started)
+				fastUploadParser.close();
+		}
+		return fastUploadParser;
+	}
+
+	/**
+	 * parse the request with the default {@link FileFactory} lazily
+	 * 
+	 * @see #parseStream(HttpServletRequest, FileFactory)
+	 * @since 0.5.2
+	 */
+	public static PartStream parseStream(HttpServletRequest request) throws IOException {
+		return parseStream(request, FileFactory.getInstance());
+	}
+
+	/**
+	 * parse the request lazily, the returned {@link PartStream} reads the
+	 * request when the caller iterates the parts or reads the content of a
+	 * part, no part is kept in memory or in the repository. The request is
+	 * admitted by the memory budget and the disk quota as the synchronous
+	 * way, till the last part is iterated.
+	 * 
+	 * @param request
+	 * @param fileFactory
+	 *            filters parts and limits content length
+	 * @return the iterator of parts
+	 * @throws IOException
+	 * @since 0.5.2
+	 */
+	public static PartStream parseStream(HttpServletRequest request, FileFactory fileFactory) throws IOException {
+		FastUploadParser fastUploadParser = new FastUploadParser(request, fileFactory.getConfig(), false);
+		return new PartStream(request.getInputStream(), fastUploadParser.context, fastUploadParser.boundary);
+	}
+
+	/**
+	 * parse a chunk of a resumable upload, the request tells the upload id by
+	 * the <em>Upload-Id</em> header, none for the first chunk, and the range
+	 * of the chunk by the <em>Content-Range</em> header. The returned parser
+	 * tells the upload id and the next offset after <code>parseList()</code>.
+	 * The request is admitted by the memory budget and the disk quota as the
+	 * synchronous way, till the chunk is parsed.
+	 * 
+	 * @param request
+	 * @param fileFactory
+	 * @param store
+	 *            one store shared by the requests of an application
+	 * @return the parser of the chunk
+	 * @throws IOException
+	 * @see ResumableUploadParser
+	 */
+	public static ResumableUploadParser parseResumable(HttpServletRequest request, FileFactory fileFactory, SessionStore store)
+			throws IOException {
+		FastUploadParser fastUploadParser = new FastUploadParser(request, fileFactory.getConfig(), false);
+		return new ResumableUploadParser(request.getInputStream(), fastUploadParser.context, fastUploadParser.boundary, store,
+				request.getHeader(_HEADER_UPLOAD_ID), request.getHeader(_HEADER_CONTENT_RANGE));
+	}
+
+	/**
+	 * parse enctype, content length, boundary and encoding, create the
+	 * context of the request
+	 */
+	private void parseHeaders() {
 		this.parseEnctype();
 		this.parseContentLength();
-		
-		fileFactory.setEncoding(request.getCharacterEncoding() == null ? _DEFALT_ENCODING : request.getCharacterEncoding() );
-		
-		if (fileFactory.repository == null || fileFactory.repository.trim().equals("")) {
-			uploadParser = new MemoryUploadParser(request.getInputStream(), fileFactory, boundary, contentLength);
+
+		Object tenant = request.getAttribute(DiskQuota.TENANT_ATTRIBUTE);
+		context = new UploadContext(config, request.getCharacterEncoding() == null ? _DEFALT_ENCODING : request.getCharacterEncoding(),
+				tenant == null ? null : tenant.toString());
+	}
+
+	/**
+	 * parse enctype, content length, boundary and encoding, create the
+	 * parser
+	 * 
+	 * @throws IOException
+	 */
+	private void init() throws IOException {
+		this.parseHeaders();
+		this.admit();
+
+		boolean created = false;
+		try {
+			if (parseMode == ParseMode.MEMORY)
+				uploadParser = new MemoryUploadParser(request.getInputStream(), context, boundary, contentLength);
+			else
+				uploadParser = new StreamUploadParser(request.getInputStream(), context, boundary, contentLength);
+			created = true;
+		} finally {
+			if (!created)
+				close();
+		}
+	}
+
+	/**
+	 * select the parse mode, and reserve the request from the memory budget or
+	 * the disk quota of the config. Every entry point admits a request by it
+	 * before reading the body.
+	 * 
+	 * @throws IOException
+	 */
+	private void admit() throws IOException {
+		parseMode = selectMode();
+		if (parseMode == ParseMode.MEMORY && reserveMemory())
+			return;
+		parseMode = ParseMode.STREAM;
+		// fail fast before a byte is written, grow on demand if unknown
+		context.reserveDisk(contentLength > 0 ? contentLength : config.getMaxContentLength() > 0 ? config.getMaxContentLength() : 0);
+	}
+
+	/**
+	 * select the parse mode with the policy of the config, in memory if no
+	 * repository
+	 */
+	private ParseMode selectMode() {
+		if (config.getParserPolicy() == null)
+			return config.getRepository() == null ? ParseMode.MEMORY : hint != null ? hint : ParseMode.STREAM;
+		ParseMode mode = config.getParserPolicy().select(config, contentLength, hint);
+		return config.getRepository() == null ? ParseMode.MEMORY : mode;
+	}
+
+	/**
+	 * reserve the content length, or the first slab if unknown, from the
+	 * memory budget of the config, the bytes read beyond it are reserved as
+	 * they arrive
+	 * 
+	 * @return false if the request falls back to the repository
+	 * @throws IOException
+	 */
+	private boolean reserveMemory() throws IOException {
+		MemoryBudget budget = config.getMemoryBudget();
+		if (budget == null)
+			return true;
+		long length = contentLength > 0 ? contentLength : _UNKNOWN_LENGTH_RESERVE;
+		boolean reserved = false;
+		if (budget.getPolicy() == MemoryBudget.Policy.WAIT) {
+			try {
+				reserved = budget.reserve(length, budget.getWaitMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
 		} else {
-			uploadParser = new StreamUploadParser(request.getInputStream(), fileFactory, boundary);
+			reserved = budget.tryReserve(length);
+		}
+		if (reserved) {
+			context.admitMemory(length);
+			return true;
+		}
+		if (budget.getPolicy() == MemoryBudget.Policy.FALLBACK && config.getRepository() != null)
+			return false;
+		throw ThresholdException.memoryBudgetException(length);
+	}
+
+	/**
+	 * release the bytes reserved from the {@link MemoryBudget} for the
+	 * request, call it when the parts parsed in memory are not used any more.
+	 * It releases the bytes reserved from the {@link DiskQuota} and not
+	 * written as well, call it if the request is not parsed.
+	 * 
+	 * @since 0.5.2
+	 */
+	public void close() {
+		if (context != null) {
+			context.releaseMemory();
+			context.finishDisk();
 		}
-		uploadParser.encoding = fileFactory.getEncoding() ;
-		
 	}
 
 	/**
@@ -229,7 +546,14 @@ public class FastUploadParser {
 	 * @throws IOException
 	 */
 	public List<MultiPart> parseList() throws IOException {
-		return uploadParser.parseList();
+		boolean parsed = false;
+		try {
+			List<MultiPart> parts = uploadParser.parseList();
+			parsed = true;
+			return parts;
+		} finally {
+			finish(parsed);
+		}
 	}
 
 	/**
@@ -239,7 +563,24 @@ public class FastUploadParser {
 	 * @throws IOException
 	 */
 	public Map<String, MultiPart> parseMap() throws IOException {
-		return uploadParser.parseMap();
+		boolean parsed = false;
+		try {
+			Map<String, MultiPart> parts = uploadParser.parseMap();
+			parsed = true;
+			return parts;
+		} finally {
+			finish(parsed);
+		}
+	}
+
+	/**
+	 * release the bytes reserved from the disk quota and not written, and the
+	 * memory budget if parsing failed, no part is returned then
+	 */
+	private void finish(boolean parsed) {
+		if (!parsed)
+			context.releaseMemory();
+		context.finishDisk();
 	}
 
 	/**
@@ -265,13 +606,21 @@ public class FastUploadParser {
 	 * runtime exception
 	 */
 	private void parseContentLength() {
-		long maxContentLength = this.fileFactory.getMaxContentLength();
+		long maxContentLength = this.config.getMaxContentLength();
 
 		contentLength = request.getContentLength();
 		if (maxContentLength > 0 && contentLength > maxContentLength)
 			throw ThresholdException.parseThresholdException();
 	}
 
+	/**
+	 * @return the mode the request is parsed in, {@link ParseMode#STREAM} if
+	 *         the memory budget made it fall back
+	 */
+	public ParseMode getParseMode() {
+		return parseMode;
+	}
+
 	public long getContentLength() {
 		return contentLength;
 	}
@@ -299,4 +648,14 @@ public class FastUploadParser {
 	public int getReadBytes() {
 		return this.uploadParser.getReadBytes();
 	}
+
+	/**
+	 * delegate
+	 * 
+	 * @return records of the parts rejected by the allowed types and
+	 *         extensions of the {@link FileFactory}
+	 */
+	public RejectedParts getRejectedParts() {
+		return this.context.getRejectedParts();
+	}
 }
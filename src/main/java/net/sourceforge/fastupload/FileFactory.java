@@ -20,16 +20,28 @@ package net.sourceforge.fastupload;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Random;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import javax.servlet.ServletRequest;
+import net.sourceforge.fastupload.util.ContentDigest;
 
 /**
  * 
  * A factory that indicate which concrete sub class of {@link MultiPart} to be created. Also it provides single part <em>threshold</em> limitation
  * , <em>maxContentLength</em> limitation, <em>content type and file extension name</em> filter for form-based upload
+ * <p/>
+ * 
+ * The properties are compiled to an immutable {@link UploadConfig} by
+ * {@link #getConfig()}, parsers read the config only and keep the state of a
+ * request in an {@link UploadContext}, so a factory is shared by all requests
+ * once it is set. The overrides of the deprecated
+ * <code>createMultiPartFile()</code> and <code>acceptable()</code> in a sub
+ * class are still called by parsers, with the charset encoding of the factory
+ * rather than the one of the request, set the properties instead.
  * 
  * @see net.sourceforge.fastupload.FastUploadParser
  * 
@@ -39,6 +51,11 @@ import javax.servlet.ServletRequest;
  */
 public class FileFactory {
 
+	/**
+	 * max number of the not-acceptable content headers kept by a factory
+	 */
+	private static final int _EXCEPTIONAL_LIMIT = 1024;
+
 	/**
 	 * charset name for FileFactory, initial as JVM default charset name
 	 */
@@ -70,23 +87,99 @@ public class FileFactory {
 	 */
 	protected int threshold;
 
+	/**
+	 * max length of content of a file part kept in memory before it spills to
+	 * a temporary file in the repository, 0 if a file part is written to the
+	 * repository directly
+	 */
+	protected int memoryThreshold;
+
+	/**
+	 * map the region of a binary file in the repository when the content
+	 * length of the request is known
+	 */
+	protected boolean mappedWrite;
+
+	/**
+	 * level of {@link java.util.zip.Deflater} compressing a file in the
+	 * repository, 0 if not compress
+	 */
+	protected int compressionLevel;
+
 	/**
 	 * if the property is true, the factory generates a universal random name
 	 * for current {@link MultiPart} object;
 	 */
 	protected boolean randomFileName = false;
 
-	private Set<ContentHeaderMap> exceptionalSet = new HashSet<ContentHeaderMap>();
+	/**
+	 * levels of hex sub directories of the repository, 0 if flat
+	 */
+	private int shardLevels;
+
+	/**
+	 * names the files of the repository, null if by <em>randomFileName</em>
+	 */
+	private NamingStrategy namingStrategy;
+
+	/**
+	 * stores the files of the repository by the content, null if none
+	 */
+	private DedupStore dedupStore;
+
+	/**
+	 * digest algorithms of the content of a part, null if none
+	 */
+	private String[] digestAlgorithms;
+
+	/**
+	 * interceptors of the content of parts, null if none
+	 */
+	private PartInterceptor[] interceptors;
+
+	/**
+	 * check the first bytes of a file part with the allowed types
+	 */
+	private boolean sniffContent;
+
+	/**
+	 * budget of the requests parsed in memory, null if unlimited
+	 */
+	private MemoryBudget memoryBudget;
+
+	/**
+	 * selects the parse mode of a request, null if by the repository only
+	 */
+	private ParserPolicy parserPolicy;
+
+	/**
+	 * quota of the bytes in the repository, null if unlimited
+	 */
+	private DiskQuota diskQuota;
 
 	private HashSet<String> allowedExtensionsSet;
 
 	private HashSet<String> allowedTypesSet;
-	
+
 	/**
-	 * charset encoding of ServletRequest
+	 * not-acceptable content headers of all requests, kept for the callers of
+	 * the deprecated {@link #getExceptionals()}
+	 */
+	private final Set<ContentHeaderMap> exceptionalSet = Collections
+			.newSetFromMap(new ConcurrentHashMap<ContentHeaderMap, Boolean>());
+
+	/**
+	 * default charset encoding of content headers, if a request does not tell
+	 * it
 	 */
 	private String encoding;
 
+	/**
+	 * configuration compiled from the properties, null after a property is
+	 * set
+	 */
+	private volatile UploadConfig config;
+
 	/**
 	 * return a FileFactory instance with default charset
 	 */
@@ -126,42 +219,15 @@ public class FileFactory {
 	 * @param header
 	 * @return
 	 * @throws IOException
+	 * @deprecated parsers create the parts by the {@link UploadConfig} of
+	 *             <code>getConfig()</code>, which calls the method only if a
+	 *             sub class overrides it. Choose the files of the repository
+	 *             by the properties of the factory, such as
+	 *             {@link #setNamingStrategy(NamingStrategy)}, instead.
 	 */
+	@Deprecated
 	protected MultiPart createMultiPartFile(ContentHeaderMap header) throws IOException {
-		MultiPart mpf = null ;
-
-		if (!header.isFile()) { // always MemoryMultiPartData if not a file
-			mpf = charset == null ? new MemoryMultiPart(header.getName()) : new MemoryMultiPart(header.getName(), charset);
-		} else if (repository == null) { // memory file
-			mpf = charset == null ? new MemoryMultiPart(header.getName()) : new MemoryMultiPart(header.getName(), charset);
-		} else { // disk file
-			if (header.isTextable()) {
-				MultiPartTextFile mptf = charset == null ? new MultiPartTextFile(marshalFileName(header.getFileName())) : new MultiPartTextFile(
-						marshalFileName(header.getFileName()), charset);
-				mptf.setEncoding(encoding);
-				mpf = mptf;
-			} else {
-				mpf = charset == null ? new MultiPartBinaryFile(marshalFileName(header.getFileName())) : new MultiPartBinaryFile(
-						marshalFileName(header.getFileName()), charset);
-			}
-		}
-		
-		if (mpf != null) {
-			mpf.setContentHeaderMap(header);
-			mpf.setThreshold(threshold);
-		}
-		return mpf;
-	}
-
-	private String marshalFileName(String name) {
-		String fn = null;
-		int i = repository.lastIndexOf("/");
-		if (randomFileName) {
-			fn = repository + (i == repository.length() - 1 ? "" : "/") + UniveralNameGenerator.generate();
-		} else {
-			fn = repository + (i == repository.length() - 1 ? "" : "/") + name;
-		}
-		return fn;
+		return getConfig().newMultiPartFile(header, encoding);
 	}
 
 	/**
@@ -170,29 +236,29 @@ public class FileFactory {
 	 * @param contentHeaderMap
 	 *            ContentHeaderMap
 	 * @return boolean
+	 * @deprecated parsers check the parts by the {@link UploadConfig} of
+	 *             <code>getConfig()</code>, which calls the method only if a
+	 *             sub class overrides it. Filter the parts by the allowed
+	 *             types and extensions, or by a {@link PartInterceptor},
+	 *             instead.
 	 */
+	@Deprecated
 	protected boolean acceptable(ContentHeaderMap contentHeaderMap) {
-		if (allowedExtensions == null && allowedTypes == null)
-			return true;
-
-		if (allowedTypesSet != null && contentHeaderMap.getContentType() != null) {
-			if (allowedTypesSet.contains(contentHeaderMap.getContentType())) {
-				return true;
-			} else {
-				exceptionalSet.add(contentHeaderMap);
-				return false;
-			}
-		}
-		if (contentHeaderMap.isFile() && allowedExtensionsSet != null) {
-			String extName = this.getExtension(contentHeaderMap.getFileName());
-			if (extName != null && !allowedExtensionsSet.contains(extName)) {
-				exceptionalSet.add(contentHeaderMap);
-				return false;
-			}
-			return true;
-		} else
-			return true;
+		return getConfig().acceptableType(contentHeaderMap);
+	}
 
+	/**
+	 * return the immutable configuration compiled from the properties, it is
+	 * compiled again only after a property is set. Set the properties before
+	 * the factory is shared by threads.
+	 * 
+	 * @return UploadConfig
+	 */
+	public UploadConfig getConfig() {
+		UploadConfig c = config;
+		if (c == null)
+			config = c = new UploadConfig(this, allowedTypesSet, allowedExtensionsSet, digestAlgorithms, interceptors);
+		return c;
 	}
 
 	/**
@@ -207,6 +273,7 @@ public class FileFactory {
 	public void setAllowedTypes(String allowedTypes) {
 		this.allowedTypes = allowedTypes;
 		this.allowedTypesSet = marshalSet(allowedTypes);
+		this.config = null;
 	}
 
 	/**
@@ -221,19 +288,31 @@ public class FileFactory {
 	public void setAllowedExtensions(String allowedExtensions) {
 		this.allowedExtensions = allowedExtensions;
 		this.allowedExtensionsSet = marshalSet(allowedExtensions);
+		this.config = null;
 	}
 
 	/**
-	 * return a map object contains all not-acceptable {@link ContentHeaderMap},
-	 * the key is the file name parsed from the {@link ServletRequest} input
-	 * stream.
+	 * return a set contains the not-acceptable {@link ContentHeaderMap} of all
+	 * requests parsed with the factory, the first 1024 headers are kept only.
 	 * 
-	 * @return
+	 * @return a set shared by the threads
+	 * @deprecated the factory is shared by requests, the rejected parts of a
+	 *             request are recorded by
+	 *             {@link UploadParser#getRejectedParts()}
 	 */
+	@Deprecated
 	public Set<ContentHeaderMap> getExceptionals() {
 		return exceptionalSet;
 	}
 
+	/**
+	 * record a not-acceptable header for {@link #getExceptionals()}
+	 */
+	void addExceptional(ContentHeaderMap header) {
+		if (exceptionalSet.size() < _EXCEPTIONAL_LIMIT)
+			exceptionalSet.add(header);
+	}
+
 	public String getAllowedTypes() {
 		return allowedTypes;
 	}
@@ -248,7 +327,7 @@ public class FileFactory {
 		HashSet<String> set = new HashSet<String>(0);
 		String[] strs = types.split(",");
 		for (String s : strs) {
-			set.add(s);
+			set.add(s.trim());
 		}
 		return set;
 	}
@@ -259,6 +338,7 @@ public class FileFactory {
 
 	public void setRepository(String repository) {
 		this.repository = repository;
+		this.config = null;
 	}
 
 	public long getMaxContentLength() {
@@ -267,6 +347,7 @@ public class FileFactory {
 
 	public void setMaxContentLength(long maxContentLength) {
 		this.maxContentLength = maxContentLength;
+		this.config = null;
 	}
 
 	public int getThreshold() {
@@ -275,11 +356,179 @@ public class FileFactory {
 
 	public void setThreshold(int threshold) {
 		this.threshold = threshold;
+		this.config = null;
+	}
+
+	public int getMemoryThreshold() {
+		return memoryThreshold;
+	}
+
+	/**
+	 * keep the content of a file part in memory till it exceeds the
+	 * threshold, then spill it to the repository. It makes sense only if the
+	 * repository is set.
+	 * 
+	 * @param memoryThreshold
+	 *            0 writes a file part to the repository directly
+	 */
+	public void setMemoryThreshold(int memoryThreshold) {
+		this.memoryThreshold = memoryThreshold;
+		this.config = null;
+	}
+
+	public boolean isMappedWrite() {
+		return mappedWrite;
+	}
+
+	/**
+	 * write a {@link MultiPartBinaryFile} through a memory mapped region of
+	 * the file if the content length of the request is known, the region is
+	 * as large as the remaining bytes of the request.
+	 * 
+	 * @param mappedWrite
+	 */
+	public void setMappedWrite(boolean mappedWrite) {
+		this.mappedWrite = mappedWrite;
+		this.config = null;
+	}
+
+	/**
+	 * comma splitting digest algorithms computed while the content of a part
+	 * is parsed, for example,
+	 * 
+	 * <pre>
+	 * SHA-256, MD5, CRC32, CRC32C
+	 * </pre>
+	 * 
+	 * @param digestAlgorithms
+	 *            null if no digest
+	 * @throws IllegalArgumentException
+	 *             if an algorithm is not available
+	 * @see MultiPart#getDigest(String)
+	 */
+	public void setDigestAlgorithms(String digestAlgorithms) {
+		if (digestAlgorithms == null) {
+			this.digestAlgorithms = null;
+			this.config = null;
+			return;
+		}
+		String[] algorithms = digestAlgorithms.split(",");
+		for (int i = 0; i < algorithms.length; i++) {
+			algorithms[i] = algorithms[i].trim();
+			ContentDigest.getInstance(algorithms[i]);
+		}
+		this.digestAlgorithms = algorithms;
+		this.config = null;
+	}
+
+	/**
+	 * add an interceptor behind the interceptors added, it sees the content
+	 * of every part before the part stores it
+	 * 
+	 * @param interceptor
+	 */
+	public void addInterceptor(PartInterceptor interceptor) {
+		if (interceptors == null) {
+			interceptors = new PartInterceptor[] { interceptor };
+		} else {
+			PartInterceptor[] added = Arrays.copyOf(interceptors, interceptors.length + 1);
+			added[interceptors.length] = interceptor;
+			interceptors = added;
+		}
+		this.config = null;
+	}
+
+	public List<PartInterceptor> getInterceptors() {
+		return interceptors == null ? Collections.<PartInterceptor> emptyList() : Arrays.asList(interceptors.clone());
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * compress a file part in the repository with the level of
+	 * {@link java.util.zip.Deflater} while it is written, unless its content
+	 * type or its first bytes tell it is compressed already.
+	 * {@link MultiPartDiskFile#getInputStream()} decompresses the file.
+	 * 
+	 * @param compressionLevel
+	 *            1 (best speed) to 9 (best compression), 0 if not compress
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+		this.config = null;
+	}
+
+	public boolean isSniffContent() {
+		return sniffContent;
+	}
+
+	/**
+	 * check the first bytes of every file part with the allowed types before
+	 * the part is created, a part whose content does not match is rejected
+	 * as its content type is not allowed, and none of its content is stored.
+	 * 
+	 * @param sniffContent
+	 * @see #setAllowedTypes(String)
+	 */
+	public void setSniffContent(boolean sniffContent) {
+		this.sniffContent = sniffContent;
+		this.config = null;
+	}
+
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * reserve the content length of a request parsed in memory from the
+	 * budget, share one budget by all factories of the process
+	 * 
+	 * @param memoryBudget
+	 *            null if unlimited
+	 * @see FastUploadParser#close()
+	 */
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		this.config = null;
 	}
 
-	private String getExtension(String name) {
-		int i = name.lastIndexOf(".");
-		return i == -1 ? null : name.substring(i);
+	public ParserPolicy getParserPolicy() {
+		return parserPolicy;
+	}
+
+	/**
+	 * select the {@link ParseMode} of every request with the policy, an
+	 * {@link AdaptiveParserPolicy} parses small requests in memory and streams
+	 * large ones into the repository.
+	 * 
+	 * @param parserPolicy
+	 *            null to parse in memory only if no repository
+	 */
+	public void setParserPolicy(ParserPolicy parserPolicy) {
+		this.parserPolicy = parserPolicy;
+		this.config = null;
+	}
+
+	public DiskQuota getDiskQuota() {
+		return diskQuota;
+	}
+
+	/**
+	 * charge the bytes written to the repository to the quota, share one quota
+	 * by all factories of a repository. A request streamed into the
+	 * repository reserves its content length before parsing, and is rejected
+	 * with a {@link net.sourceforge.fastupload.exception.ThresholdException}
+	 * if the quota is exceeded.
+	 * 
+	 * @param diskQuota
+	 *            null if unlimited
+	 * @see DiskQuota#TENANT_ATTRIBUTE
+	 */
+	public void setDiskQuota(DiskQuota diskQuota) {
+		this.diskQuota = diskQuota;
+		this.config = null;
 	}
 
 	public String getCharset() {
@@ -288,6 +537,7 @@ public class FileFactory {
 
 	public void setCharset(String charset) {
 		this.charset = charset;
+		this.config = null;
 	}
 
 	public String getEncoding() {
@@ -296,38 +546,89 @@ public class FileFactory {
 
 	public void setEncoding(String encoding) {
 		this.encoding = encoding;
+		this.config = null;
 	}
 
 	public void setRandomFileName(boolean randomFileName) {
 		this.randomFileName = randomFileName;
+		this.config = null;
 	}
 
 	public boolean isRandomFileName() {
 		return randomFileName;
 	}
 
+	public int getShardLevels() {
+		return shardLevels;
+	}
+
+	/**
+	 * spread the files of the repository over sub directories, every level
+	 * is named with two hex digits of the hash of the file name, such as
+	 * <em>repository/3f/a0/name</em> for 2 levels. The directories are
+	 * created when needed. It keeps the directories small for a high rate of
+	 * creating files.
+	 * 
+	 * @param shardLevels
+	 *            0 for a flat repository, 1 to 4
+	 */
+	public void setShardLevels(int shardLevels) {
+		if (shardLevels < 0 || shardLevels > ShardedRepository.MAX_LEVELS)
+			throw new IllegalArgumentException("shard levels must be 0 to " + ShardedRepository.MAX_LEVELS + ": " + shardLevels);
+		this.shardLevels = shardLevels;
+		this.config = null;
+	}
+
+	public NamingStrategy getNamingStrategy() {
+		return namingStrategy;
+	}
+
+	/**
+	 * name the files of the repository with the strategy, it overrides
+	 * <em>randomFileName</em>
+	 * 
+	 * @param namingStrategy
+	 *            null to name by <em>randomFileName</em>, a
+	 *            {@link RandomNamingStrategy} if it is true, or else a
+	 *            {@link ClientNamingStrategy}
+	 * @see ContentAddressedNamingStrategy
+	 */
+	public void setNamingStrategy(NamingStrategy namingStrategy) {
+		this.namingStrategy = namingStrategy;
+		this.config = null;
+	}
+
+	public DedupStore getDedupStore() {
+		return dedupStore;
+	}
+
+	/**
+	 * store the file parts of the repository in the store by the digest of
+	 * the content, a part of the content found in the store keeps no file of
+	 * its own, and <code>toFile()</code> links to the blob. Share one store by
+	 * the factories of an application.
+	 * 
+	 * @param dedupStore
+	 *            null if not deduplicate
+	 */
+	public void setDedupStore(DedupStore dedupStore) {
+		this.dedupStore = dedupStore;
+		this.config = null;
+	}
+
+	/**
+	 * @deprecated use {@link RandomNamingStrategy}
+	 */
+	@Deprecated
 	static class UniveralNameGenerator {
-		static final char[] alpha = { '-', '~', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h',
-				'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', 'A', 'B', 'C', 'D', 'E', 'F',
-				'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z' };
 
 		static String generate(String name) {
-			return String.format("%d_%s_%d_%s", System.currentTimeMillis(), random(), System.nanoTime(), name);
+			return RandomNamingStrategy.generate("_" + name);
 		}
 
 		public static String generate() {
-			return String.format("%d_%s_%d.tmp", System.currentTimeMillis(), random(), System.nanoTime());
-		}
-
-		private static String random() {
-			char[] chars = new char[12];
-			Random random = new Random();
-			for (int i = 0; i < 12; i++) {
-				chars[i] = alpha[random.nextInt(alpha.length)];
-			}
-			return new String(chars);
+			return RandomNamingStrategy.generate();
 		}
-
 	}
 
 }
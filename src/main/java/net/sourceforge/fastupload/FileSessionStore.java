@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import net.sourceforge.fastupload.exception.FileUploadParserException;
+
+/**
+ * A {@link SessionStore} that keeps a session in two files of a directory,
+ * the repository for example, <em>id.session</em> for the metadata and
+ * <em>id.data</em> for the content. The metadata file is replaced by an atomic
+ * rename, so a crash never leaves a partial one, and the methods are
+ * synchronized on the store, so the ranges of parallel chunks are all
+ * recorded. Use one store for a directory in a process.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class FileSessionStore implements SessionStore {
+
+	private static final String _SESSION_SUFFIX = ".session";
+
+	private static final String _DATA_SUFFIX = ".data";
+
+	private File directory;
+
+	public FileSessionStore(String directory) {
+		super();
+		this.directory = new File(directory);
+	}
+
+	public synchronized void create(UploadSession session) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(getDataFile(session.getId()), "rw");
+		try {
+			// sparse on most file systems, the blocks are allocated as chunks
+			// are written
+			file.setLength(session.getLength());
+		} finally {
+			file.close();
+		}
+		save(session);
+	}
+
+	public synchronized UploadSession load(String id) throws IOException {
+		File file = getSessionFile(id);
+		if (!file.exists())
+			return null;
+		Properties props = new Properties();
+		FileInputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return UploadSession.fromProperties(props);
+	}
+
+	public synchronized UploadSession commit(String id, long start, long end) throws IOException {
+		UploadSession session = load(id);
+		if (session == null)
+			return null;
+		session.addRange(start, end);
+		save(session);
+		return session;
+	}
+
+	public File getDataFile(String id) {
+		return new File(directory, checkId(id) + _DATA_SUFFIX);
+	}
+
+	public synchronized boolean remove(String id) throws IOException {
+		return getSessionFile(id).delete();
+	}
+
+	public synchronized void delete(String id) throws IOException {
+		getSessionFile(id).delete();
+		getDataFile(id).delete();
+	}
+
+	/**
+	 * delete the sessions not modified for <em>maxAge</em> milliseconds
+	 * 
+	 * @return number of sessions deleted
+	 * @throws IOException
+	 */
+	public synchronized int purge(long maxAge) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return 0;
+		long before = System.currentTimeMillis() - maxAge;
+		int c = 0;
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(_SESSION_SUFFIX) && file.lastModified() < before) {
+				delete(name.substring(0, name.length() - _SESSION_SUFFIX.length()));
+				c++;
+			}
+		}
+		return c;
+	}
+
+	private void save(UploadSession session) throws IOException {
+		File file = getSessionFile(session.getId());
+		File tmp = new File(directory, file.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			session.toProperties().store(out, null);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private File getSessionFile(String id) {
+		return new File(directory, checkId(id) + _SESSION_SUFFIX);
+	}
+
+	/**
+	 * an id from a request names files of the directory, only letters,
+	 * digits, '-' and '_' are allowed
+	 */
+	private static String checkId(String id) {
+		if (id == null || id.length() == 0 || id.length() > 64)
+			throw FileUploadParserException.sessionException(id);
+		for (int i = 0; i < id.length(); i++) {
+			char c = id.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_'))
+				throw FileUploadParserException.sessionException(id);
+		}
+		return id;
+	}
+}
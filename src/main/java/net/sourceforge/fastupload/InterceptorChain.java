@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+
+/**
+ * The chain of the {@link PartInterceptor} objects of a part, the last one
+ * passes bytes to the {@link MultiPart} object. A chain is created for every
+ * part if {@link FileFactory} has interceptors.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public final class InterceptorChain {
+
+	private PartInterceptor[] interceptors;
+
+	private MultiPart part;
+
+	/**
+	 * state of the part for every interceptor
+	 */
+	private Object[] states;
+
+	/**
+	 * index of the interceptor being called
+	 */
+	private int current = -1;
+
+	/**
+	 * true if the part is vetoed, the bytes appended by the interceptors
+	 * closed are dropped
+	 */
+	private boolean aborted;
+
+	InterceptorChain(PartInterceptor[] interceptors, MultiPart part) {
+		super();
+		this.interceptors = interceptors;
+		this.part = part;
+		this.states = new Object[interceptors.length];
+	}
+
+	/**
+	 * call <code>open()</code> of the interceptors, if one vetoes the part or
+	 * fails, the interceptors opened before it are closed in reverse order
+	 * 
+	 * @return false if an interceptor vetoes the part
+	 */
+	boolean open() throws IOException {
+		int opened = 0;
+		boolean failed = true;
+		try {
+			for (; opened < interceptors.length; opened++) {
+				current = opened;
+				if (!interceptors[opened].open(part, this))
+					break;
+			}
+			failed = false;
+		} finally {
+			current = -1;
+			// the failure of open() is thrown, not the one of closing
+			if (failed)
+				closeOpened(opened, true);
+		}
+		if (opened == interceptors.length)
+			return true;
+		closeOpened(opened, false);
+		return false;
+	}
+
+	/**
+	 * close the interceptors opened, the last one first
+	 * 
+	 * @param quietly
+	 *            true to ignore the failures, or else the first one is thrown
+	 *            after all are closed
+	 */
+	private void closeOpened(int opened, boolean quietly) throws IOException {
+		Exception first = null;
+		aborted = true;
+		try {
+			for (int i = opened - 1; i >= 0; i--) {
+				current = i;
+				try {
+					interceptors[i].close(part, this);
+				} catch (IOException e) {
+					if (first == null)
+						first = e;
+				} catch (RuntimeException e) {
+					if (first == null)
+						first = e;
+				}
+			}
+		} finally {
+			current = -1;
+		}
+		if (first == null || quietly)
+			return;
+		if (first instanceof IOException)
+			throw (IOException) first;
+		throw (RuntimeException) first;
+	}
+
+	/**
+	 * pass bytes to the next interceptor, or to the part behind the last
+	 * interceptor
+	 * 
+	 * @throws IOException
+	 */
+	public void append(byte[] buff, int off, int len) throws IOException {
+		if (aborted)
+			return;
+		int next = current + 1;
+		if (next == interceptors.length) {
+			part.append(buff, off, len);
+			return;
+		}
+		int caller = current;
+		current = next;
+		try {
+			interceptors[next].append(part, buff, off, len, this);
+		} finally {
+			current = caller;
+		}
+	}
+
+	/**
+	 * call <code>close()</code> of the interceptors in order, then close the
+	 * part
+	 */
+	void close() throws IOException {
+		try {
+			for (int i = 0; i < interceptors.length; i++) {
+				current = i;
+				interceptors[i].close(part, this);
+			}
+		} finally {
+			current = -1;
+		}
+		part.close();
+	}
+
+	/**
+	 * @return the state of the part kept by the interceptor being called
+	 */
+	public Object getState() {
+		return states[current];
+	}
+
+	/**
+	 * keep a state of the part for the interceptor being called
+	 */
+	public void setState(Object state) {
+		states[current] = state;
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A budget of the bytes that requests parsed in memory hold at the same time,
+ * share one object by all {@link FileFactory} objects of the process.
+ * {@link FastUploadParser} reserves the content length of a request before
+ * parsing it with {@link MemoryUploadParser}, a request of unknown length
+ * reserves its first slab only, and the slabs read beyond the reservation are
+ * reserved as they are allocated. The bytes are released when the parser is
+ * closed, or parsing fails. When the budget is exhausted, the request is
+ * parsed by {@link StreamUploadParser} into the repository, waits for bytes
+ * released, or is rejected, as the {@link Policy} tells.
+ * <p/>
+ * 
+ * Reserving and releasing are a compare-and-set of an {@link AtomicLong}, a
+ * thread locks the budget only while it waits.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MemoryBudget {
+
+	/**
+	 * what to do with a request when the budget is exhausted
+	 */
+	public enum Policy {
+		/**
+		 * parse the request into the repository, reject it if no repository
+		 */
+		FALLBACK,
+		/**
+		 * wait for bytes released till the wait time, then reject it
+		 */
+		WAIT,
+		/**
+		 * reject the request with a {@link net.sourceforge.fastupload.exception.ThresholdException}
+		 */
+		REJECT
+	}
+
+	private final long limit;
+
+	private final Policy policy;
+
+	private final long waitMillis;
+
+	private final AtomicLong reserved = new AtomicLong();
+
+	/**
+	 * number of threads waiting, release notifies them only if there are
+	 */
+	private volatile int waiters;
+
+	/**
+	 * @param limit
+	 *            max bytes reserved at the same time
+	 * @param policy
+	 */
+	public MemoryBudget(long limit, Policy policy) {
+		this(limit, policy, 0);
+	}
+
+	/**
+	 * @param limit
+	 *            max bytes reserved at the same time
+	 * @param policy
+	 * @param waitMillis
+	 *            max time to wait with {@link Policy#WAIT}
+	 */
+	public MemoryBudget(long limit, Policy policy, long waitMillis) {
+		super();
+		this.limit = limit;
+		this.policy = policy;
+		this.waitMillis = waitMillis;
+	}
+
+	/**
+	 * reserve the bytes if the budget has them
+	 * 
+	 * @return false if the budget is exhausted
+	 */
+	public boolean tryReserve(long bytes) {
+		for (;;) {
+			long current = reserved.get();
+			if (bytes > limit - current)
+				return false;
+			if (reserved.compareAndSet(current, current + bytes))
+				return true;
+		}
+	}
+
+	/**
+	 * reserve the bytes, wait till other requests release enough bytes if the
+	 * budget is exhausted
+	 * 
+	 * @param timeoutMillis
+	 *            max time to wait
+	 * @return false if the bytes are not reserved in time, or exceed the
+	 *         limit
+	 * @throws InterruptedException
+	 */
+	public boolean reserve(long bytes, long timeoutMillis) throws InterruptedException {
+		if (tryReserve(bytes))
+			return true;
+		if (bytes > limit || timeoutMillis <= 0)
+			return false;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this) {
+			waiters++;
+			try {
+				while (!tryReserve(bytes)) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						return false;
+					wait(remaining);
+				}
+				return true;
+			} finally {
+				waiters--;
+			}
+		}
+	}
+
+	/**
+	 * release the bytes reserved
+	 */
+	public void release(long bytes) {
+		reserved.addAndGet(-bytes);
+		if (waiters > 0) {
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return bytes reserved now
+	 */
+	public long getReserved() {
+		return reserved.get();
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public long getWaitMillis() {
+		return waitMillis;
+	}
+}
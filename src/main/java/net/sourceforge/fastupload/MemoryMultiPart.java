@@ -27,6 +27,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * parse the bytes of multipart data, read those bytes into a buffer, also the
@@ -38,14 +43,16 @@ import java.io.UnsupportedEncodingException;
 public class MemoryMultiPart extends MultiPart {
 
 	/**
-	 * shared buffer of current multipart/form-data input stream
+	 * segments of the content, the slices of the shared buffers of the
+	 * multipart/form-data input stream or of the buffers owned by current
+	 * object, the limit of the last owned segment grows by appending
 	 */
-	private byte[] buffer;
-	
+	private List<ByteBuffer> segments = new ArrayList<ByteBuffer>(1);
+
 	/**
-	 * content start position of a boundary
+	 * the last segment is owned by current object
 	 */
-	private int contentStart;
+	private boolean owned;
 	
 	/**
 	 * length of bytes for content of current boundary
@@ -60,13 +67,39 @@ public class MemoryMultiPart extends MultiPart {
 		super(name, charset);
 	}
 
+	/**
+	 * copy the bytes into the buffer of current object, the buffer grows if
+	 * need. A parser that reuses its read buffer calls the method.
+	 */
 	@Override
 	public void append(byte[] buff, int off, int len) throws IOException {
 		super.append(buff, off, len);
-		this.buffer = buff;
-		this.contentStart = off;
-		this.len = len;
-		
+		ByteBuffer tail = owned ? segments.get(segments.size() - 1) : null;
+		if (tail == null || tail.capacity() - tail.limit() < len) {
+			tail = ByteBuffer.wrap(new byte[Math.max(len, this.len)], 0, 0);
+			segments.add(tail);
+			owned = true;
+		}
+		System.arraycopy(buff, off, tail.array(), tail.limit(), len);
+		tail.limit(tail.limit() + len);
+		this.len += len;
+	}
+
+	/**
+	 * refer to the bytes of the buffer without copying, the buffer must not be
+	 * reused, as the slabs of {@link MemoryUploadParser} that contain all
+	 * bytes of the request.
+	 * 
+	 * @param buff
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	void share(byte[] buff, int off, int len) throws IOException {
+		super.append(buff, off, len);
+		segments.add(ByteBuffer.wrap(buff, off, len));
+		owned = false;
+		this.len += len;
 	}
 
 	/**
@@ -82,22 +115,66 @@ public class MemoryMultiPart extends MultiPart {
 		// TODO convert charset if it's text format
 		if (contentHeaderMap.isTextable()) {
 			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(target), charset));
-			byte[] buff = new byte[len];
-			System.arraycopy(buffer, contentStart, buff, 0, len);
-			writer.write(new String(buff, charset));
+			writer.append(Charset.forName(charset).decode(contiguous()));
 			writer.flush();
 			writer.close();
 			return true;
 		}
 		else {
 			FileOutputStream out = new FileOutputStream(target);
-			out.write(buffer, contentStart, len);
-			out.flush();
-			out.close();
+			try {
+				writeTo(out.getChannel());
+			} finally {
+				out.close();
+			}
 			return true;
 		}
 	}
 
+	/**
+	 * return a read-only view of the content, the view shares the bytes of the
+	 * buffer of the request without copying. The content straddling two slabs
+	 * of {@link MemoryUploadParser} is copied into one buffer at the first
+	 * call.
+	 * 
+	 * @return ByteBuffer, the position is 0 and the limit is the length of
+	 *         content
+	 */
+	public ByteBuffer asByteBuffer() {
+		return contiguous().asReadOnlyBuffer().slice();
+	}
+
+	/**
+	 * write the content to the channel without copying
+	 * 
+	 * @param channel
+	 * @return length of bytes written
+	 * @throws IOException
+	 */
+	public long writeTo(WritableByteChannel channel) throws IOException {
+		long written = 0;
+		for (ByteBuffer e : segments) {
+			ByteBuffer src = e.duplicate();
+			while (src.hasRemaining())
+				written += channel.write(src);
+		}
+		return written;
+	}
+
+	/**
+	 * @return the only segment of the content, merge all segments into one if
+	 *         need
+	 */
+	private ByteBuffer contiguous() {
+		if (segments.size() == 1)
+			return segments.get(0).duplicate();
+		ByteBuffer merged = ByteBuffer.wrap(getContentBuffer());
+		segments.clear();
+		segments.add(merged);
+		owned = true;
+		return merged.duplicate();
+	}
+
 	/**
 	 * return the buffer that contains whole content of a uploading-file
 	 * represented by current {@MemoryMultiPartData}
@@ -107,7 +184,11 @@ public class MemoryMultiPart extends MultiPart {
 	 */
 	public byte[] getContentBuffer() {
 		byte[] buff = new byte[len];
-		System.arraycopy(buffer, contentStart, buff, 0, len);
+		int p = 0;
+		for (ByteBuffer e : segments) {
+			System.arraycopy(e.array(), e.arrayOffset() + e.position(), buff, p, e.remaining());
+			p += e.remaining();
+		}
 		return buff;
 	}
 
@@ -117,11 +198,13 @@ public class MemoryMultiPart extends MultiPart {
 	}
 
 	/**
-	 * 
+	 * open an input stream reads the content without copying
 	 */
 	public InputStream getInputStream() throws IOException {
-		if (this.isFile())
-			return new ByteArrayInputStream(this.getContentBuffer());
+		if (this.isFile()) {
+			ByteBuffer content = contiguous();
+			return new ByteArrayInputStream(content.array(), content.arrayOffset() + content.position(), content.remaining());
+		}
 		else
 			return null;
 	}
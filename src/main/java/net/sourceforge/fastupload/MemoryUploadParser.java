@@ -22,18 +22,25 @@ package net.sourceforge.fastupload;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import net.sourceforge.fastupload.util.BoundaryFinder;
-import net.sourceforge.fastupload.util.UploadChunk;
-import net.sourceforge.fastupload.MultiPart;
+import net.sourceforge.fastupload.util.SegmentedBuffer;
 
 /**
  * Concrete class of {@link UploadParser} that implements main
  * <em>parseList()</em> function that return <em>List&lt;MultiPart&gt;</em> The
  * class read all bytes from {@link ServletInputStream} before parse it, which
  * behavior is not as same as {@link StreamUploadParser}
+ * <p/>
+ * 
+ * The bytes are read into the slabs of a {@link SegmentedBuffer} directly,
+ * the first slab is sized by the content length, so a chunked request or a
+ * wrong content length needs no large array. The slabs are pushed into a
+ * {@link MultipartParser} one by one, which finds a boundary straddling two
+ * slabs, and {@link MemoryMultiPart} objects refer to the content in the slabs
+ * without copying.
  * 
  * @see net.sourceforge.fastupload.FastUploadParser
  * @see net.sourceforge.fastupload.StreamUploadParser
@@ -43,19 +50,14 @@ import net.sourceforge.fastupload.MultiPart;
 public class MemoryUploadParser extends UploadParser {
 
 	/**
-	 * total length of bytes to be parse
+	 * expected length of bytes to be parse, less than 1 if unknown
 	 */
 	private int length;
 
 	/**
-	 * UploadChunk object to be create, as to find {@link MultiPart}
-	 */
-	private UploadChunk chunk;
-
-	/**
-	 * temporary ContentHeaderMap in the parsing process
+	 * all bytes of the input stream
 	 */
-	private ContentHeaderMap contentHeaderMap;
+	private SegmentedBuffer body;
 
 	public MemoryUploadParser(InputStream inputSteam, FileFactory fileFactory, byte[] boundary, int length) throws IOException {
 		super(inputSteam, fileFactory, boundary);
@@ -63,65 +65,47 @@ public class MemoryUploadParser extends UploadParser {
 		init();
 	}
 
+	public MemoryUploadParser(InputStream inputSteam, UploadContext context, byte[] boundary, int length) throws IOException {
+		super(inputSteam, context, boundary);
+		this.length = length;
+		init();
+	}
+
 	/**
-	 * read all bytes from input stream, create a {@link UploadChunk} object
-	 * contains all bytes
+	 * read all bytes from input stream into the slabs, every slab is charged
+	 * to the memory budget of the request
 	 * 
 	 * @throws IOException
 	 */
 	private void init() throws IOException {
-		byte[] stream = new byte[length];
-		byte[] b = new byte[8192];
-		int pos = 0;
-		for (int c = 0; c != -1; c = inputSteam.read(b)) {
-			System.arraycopy(b, 0, stream, pos, c);
-			pos += c;
-		}
-		chunk = new UploadChunk(stream, new BoundaryFinder(boundary), fileFactory.getCharset());
+		body = new SegmentedBuffer() {
+			@Override
+			protected void allocating(int size) throws IOException {
+				context.chargeMemory(size);
+			}
+		};
+		readBytes = (int) body.readFrom(inputSteam, length, config.getMaxContentLength());
 	}
 
 	/**
-	 * parse the bytes of <em>buffer</em>, and create a {@link MultiPartData}
-	 * object for every content within two <em>boundary</em> or
-	 * <em>sub-boundary</em>
+	 * parse the bytes of the slabs, and create a {@link MultiPart} object for
+	 * every content within two <em>boundary</em> or <em>sub-boundary</em>
 	 * 
-	 * @return list of MultiPartData
+	 * @return list of MultiPart
 	 */
 	public List<MultiPart> parseList() throws IOException {
 		List<MultiPart> multiparts = new ArrayList<MultiPart>();
-
-		while (chunk.find()) {
-			chunk.readContentHeader();
-			contentHeaderMap = chunk.getContentHeaderMap();
-			if (fileFactory.acceptable(contentHeaderMap)) {
-				if (contentHeaderMap.hasMultiPartMixed()) {
-					this.writeMixedPartData(multiparts);
-				} else {
-					this.writeData(multiparts);
-				}
-			}
+		MultiPartCollector collector = new MultiPartCollector(context, multiparts);
+		MultipartParser parser = new MultipartParser(boundary, config.getCharset(), collector);
+		collector.setParser(parser);
+		for (int i = 0; i < body.getSlabCount() && !parser.isFinished(); i++) {
+			byte[] slab = body.getSlab(i);
+			collector.setShared(slab);
+			// a content header split by two slabs is parsed in the carry
+			// buffer of the parser, content bytes in it are copied
+			parser.feed(ByteBuffer.wrap(slab, 0, body.getSlabLength(i)));
 		}
+		collector.close();
 		return multiparts;
 	}
-
-	/**
-	 * 
-	 * @param multiparts
-	 */
-	private void writeData(List<MultiPart> multiparts) throws IOException {
-		multiparts.add(this.doWriteData());
-	}
-
-	private MultiPart doWriteData() throws IOException {
-		MultiPart mpd = fileFactory.createMultiPartFile(contentHeaderMap);
-		int s = chunk.getContentStart();
-		int len = chunk.getBoundEnd() - s - 2;
-		if (len > 0)
-			mpd.append(chunk.getBuffer(), s, len);
-		return mpd;
-	}
-
-	private void writeMixedPartData(List<MultiPart> multiparts) {
-		// TODO maybe to do
-	}
 }
@@ -28,6 +28,7 @@ import java.io.Writer;
 import java.nio.charset.Charset;
 
 import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.util.ContentDigest;
 
 /**
  * 
@@ -62,7 +63,7 @@ public abstract class MultiPart {
 	 * the count of bytes in the current {@link MultiPartFile} object, excludes
 	 * the bytes of head
 	 */
-	private int bytes;
+	private long bytes;
 
 	/*
 	 * the threshold of a {@link MultiPartFile} object.
@@ -71,6 +72,11 @@ public abstract class MultiPart {
 
 	protected boolean closed = false;
 
+	/**
+	 * digests updated while appending, null if no digest algorithm
+	 */
+	private ContentDigest[] digests;
+
 	public MultiPart(String name) throws UnsupportedEncodingException {
 		this.name = name;
 	}
@@ -106,6 +112,10 @@ public abstract class MultiPart {
 		bytes += len;
 		if (threshold > 0 && bytes > threshold)
 			throw ThresholdException.fileThresholdException(this);
+		if (digests != null) {
+			for (ContentDigest e : digests)
+				e.update(buff, off, len);
+		}
 	}
 
 	/**
@@ -180,11 +190,22 @@ public abstract class MultiPart {
 		this.charset = charset;
 	}
 
+	/**
+	 * @return count of the content bytes, Integer.MAX_VALUE for a part of more
+	 *         bytes, see {@link #getLength()}
+	 */
 	public int getBytes() {
+		return (int) Math.min(bytes, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return count of the content bytes
+	 */
+	public long getLength() {
 		return bytes;
 	}
 
-	protected void setBytes(int bytes) {
+	protected void setBytes(long bytes) {
 		this.bytes = bytes;
 	}
 
@@ -222,6 +243,30 @@ public abstract class MultiPart {
 		this.threshold = threshold;
 	}
 
+	protected void setDigests(ContentDigest[] digests) {
+		this.digests = digests;
+	}
+
+	/**
+	 * return the digest of the content bytes as they are in the request,
+	 * before a {@link MultiPartTextFile} converts them. Call it after the part
+	 * is parsed.
+	 * 
+	 * @param algorithm
+	 *            one of the digest algorithms of {@link FileFactory}
+	 * @return the digest value, null if the algorithm is not set
+	 * @see FileFactory#setDigestAlgorithms(String)
+	 */
+	public byte[] getDigest(String algorithm) {
+		if (digests != null) {
+			for (ContentDigest e : digests) {
+				if (e.getAlgorithm().equalsIgnoreCase(algorithm))
+					return e.getValue();
+			}
+		}
+		return null;
+	}
+
 	public String getFieldName() {
 		return this.contentHeaderMap.getName();
 	}
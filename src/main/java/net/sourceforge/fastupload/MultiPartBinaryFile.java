@@ -20,40 +20,201 @@
 
 package net.sourceforge.fastupload;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * 
  * A concrete class of {@link MultiPartDiskFile}.
  * The class does not convert content of boundary of multipart/form input
- * stream, write bytes of it into a {@link FileOutputStream} because multipart content is binary type.
+ * stream, write bytes of it into a {@link FileChannel} because multipart content is binary type.
+ * <p/>
+ * 
+ * The appended bytes are coalesced into a direct block of <em>0x10000</em>
+ * bytes, a full block is written at an aligned position of the file in one
+ * system call. The block is returned to a pool shared by all files when the
+ * file is closed, the pool keeps <em>32</em> blocks at most. When the length
+ * of content is known, <code>map()</code> maps the region of the file window
+ * by window of <em>0x100000</em> bytes, the bytes are put into the mapped
+ * window without system call, and the file is truncated to the length of
+ * content at closing. A window is unmapped when it is garbage collected, so
+ * the mapped memory of a file is bounded by a few windows.
  * 
  * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
  * 
  */
 public class MultiPartBinaryFile extends MultiPartDiskFile {
-	private FileOutputStream fos;
+
+	private static final int _BLOCK_SIZE = 0x10000;
+
+	private static final int _POOL_SIZE = 32;
+
+	private static final int _WINDOW_SIZE = 0x100000;
+
+	/**
+	 * the blocks released by the files closed
+	 */
+	private static final BlockingQueue<ByteBuffer> _BLOCKS = new ArrayBlockingQueue<ByteBuffer>(_POOL_SIZE);
+
+	private RandomAccessFile file;
+
+	private FileChannel channel;
+
+	/**
+	 * coalescing block, or the mapped window of the file
+	 */
+	private ByteBuffer block;
+
+	private boolean mapped;
+
+	/**
+	 * position of the mapped window in the file
+	 */
+	private long window;
+
+	/**
+	 * end of the region mapped window by window
+	 */
+	private long mapEnd;
+
+	public MultiPartBinaryFile(String name) throws IOException {
+		super(name);
+		open(name);
+	}
+
+	public MultiPartBinaryFile(String name, String charset) throws IOException {
+		super(name, charset);
+		open(name);
+	}
+
+	/**
+	 * write the content into an existing file from <em>position</em>, the
+	 * bytes of the file out of the content are kept. A chunk of a resumable
+	 * upload is written to its session file so.
+	 * 
+	 * @see ResumableUploadParser
+	 */
+	MultiPartBinaryFile(String name, String charset, long position) throws IOException {
+		super(name, charset);
+		file = new RandomAccessFile(name, "rw");
+		channel = file.getChannel();
+		channel.position(position);
+	}
+
+	private void open(String name) throws IOException {
+		file = new RandomAccessFile(name, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+	}
+
+	/**
+	 * map the region of the file for the content, call it before appending
+	 * bytes. The content exceeds the region is written through the channel.
+	 * A compressed file is not mapped.
+	 * 
+	 * @param length
+	 *            max length of the content, the request content length for
+	 *            example
+	 * @throws IOException
+	 */
+	public void map(long length) throws IOException {
+		if (getLength() > 0 || getCompressionLevel() > 0 || length <= 0)
+			return;
+		mapEnd = length;
+		mapWindow(0);
+	}
+
+	/**
+	 * map the next window of the region, the last one is dropped
+	 */
+	private void mapWindow(long position) throws IOException {
+		window = position;
+		block = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(_WINDOW_SIZE, mapEnd - position));
+		mapped = true;
+	}
 
 	public void append(byte[] buff, int off, int len) throws IOException {
 		super.append(buff, off, len);
-		fos.write(buff, off, len);
+		store(buff, off, len);
+	}
+
+	@Override
+	protected void writeBytes(byte[] buff, int off, int len) throws IOException {
+		while (mapped && len > 0) {
+			int n = Math.min(len, block.remaining());
+			block.put(buff, off, n);
+			off += n;
+			len -= n;
+			if (!block.hasRemaining()) {
+				long position = window + block.position();
+				if (position < mapEnd) {
+					mapWindow(position);
+				} else {
+					// the content exceeds the mapped region
+					channel.position(position);
+					mapped = false;
+					block = null;
+				}
+			}
+		}
+		while (len > 0) {
+			if (block == null)
+				block = acquireBlock();
+			int n = Math.min(len, block.remaining());
+			block.put(buff, off, n);
+			off += n;
+			len -= n;
+			if (!block.hasRemaining())
+				flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		block.flip();
+		while (block.hasRemaining())
+			channel.write(block);
+		block.clear();
 	}
 
 	public void close() throws IOException {
 		closed = true;
-		fos.flush();
-		fos.close();
+		try {
+			finishStore();
+			if (mapped)
+				channel.truncate(window + block.position());
+			else if (block != null)
+				flush();
+		} finally {
+			if (!mapped && block != null)
+				releaseBlock(block);
+			block = null;
+			mapped = false;
+			file.close();
+		}
+		settle(this);
 	}
 
-	public MultiPartBinaryFile(String name) throws IOException {
-		super(name);
-		fos = new FileOutputStream(name);
+	/**
+	 * take a block from the pool, or allocate one if the pool is empty
+	 */
+	private static ByteBuffer acquireBlock() {
+		ByteBuffer spare = _BLOCKS.poll();
+		return spare == null ? ByteBuffer.allocateDirect(_BLOCK_SIZE) : spare;
 	}
 
-	public MultiPartBinaryFile(String name, String charset) throws IOException {
-		super(name, charset);
-		fos = new FileOutputStream(name);
+	/**
+	 * return the block to the pool, it is dropped if the pool is full
+	 */
+	private static void releaseBlock(ByteBuffer block) {
+		block.clear();
+		_BLOCKS.offer(block);
 	}
 
+	public boolean isMapped() {
+		return mapped;
+	}
 }
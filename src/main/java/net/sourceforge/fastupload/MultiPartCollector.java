@@ -0,0 +1,228 @@
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.sourceforge.fastupload.util.MagicBytes;
+
+/**
+ * A {@link PartListener} that creates a {@link MultiPart} object with
+ * {@link UploadContext} for every acceptable part, appends content to it, and
+ * collects it into a list when the part ends.
+ * <p/>
+ * 
+ * If {@link UploadConfig#isSniffContent()}, the object of a file part is not
+ * created till the first bytes of content are checked, a rejected part is
+ * skipped without storing any byte.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+class MultiPartCollector implements PartListener {
+
+	private UploadContext context;
+
+	private UploadConfig config;
+
+	private List<MultiPart> files;
+
+	/**
+	 * the parser that notifies the collector, it skips the content of a part
+	 * rejected after it started
+	 */
+	private MultipartParser parser;
+
+	private MultiPart multiPart;
+
+	/**
+	 * interceptors of current part, null if none
+	 */
+	private InterceptorChain chain;
+
+	/**
+	 * the buffer being parsed that is never reused, its bytes are shared by
+	 * {@link MemoryMultiPart} objects without copying
+	 */
+	private byte[] shared;
+
+	/**
+	 * max length of the bytes not parsed, -1 if unknown
+	 */
+	private long remaining = -1;
+
+	/**
+	 * header of the file part waiting for the first bytes to sniff
+	 */
+	private ContentHeaderMap pending;
+
+	private byte[] head;
+
+	private int headLength;
+
+	/**
+	 * skip the content of a part rejected after it started, if no parser
+	 * skips it
+	 */
+	private boolean skipping;
+
+	MultiPartCollector(UploadContext context, List<MultiPart> files) {
+		super();
+		this.context = context;
+		this.config = context.getConfig();
+		this.files = files;
+	}
+
+	public boolean partStart(ContentHeaderMap header) throws IOException {
+		if (!context.acceptable(header))
+			return false;
+		if (config.isSniffContent() && header.isFile()) {
+			if (head == null)
+				head = new byte[MagicBytes.SNIFF_LENGTH];
+			pending = header;
+			headLength = 0;
+			return true;
+		}
+		return create(header);
+	}
+
+	/**
+	 * create the part object, and open the interceptors
+	 * 
+	 * @return false if an interceptor vetoes the part
+	 */
+	private boolean create(ContentHeaderMap header) throws IOException {
+		multiPart = context.createMultiPartFile(header);
+		if (multiPart == null)
+			return false;
+		if (remaining > 0 && config.isMappedWrite() && multiPart instanceof MultiPartBinaryFile)
+			((MultiPartBinaryFile) multiPart).map(remaining);
+		chain = config.createChain(multiPart);
+		if (chain != null && !chain.open()) {
+			discard();
+			return false;
+		}
+		return true;
+	}
+
+	public void partData(byte[] buff, int off, int len) throws IOException {
+		if (skipping)
+			return;
+		if (pending != null) {
+			int n = Math.min(len, head.length - headLength);
+			System.arraycopy(buff, off, head, headLength, n);
+			headLength += n;
+			if (headLength < head.length || !sniff())
+				return;
+			off += n;
+			len -= n;
+			if (len == 0)
+				return;
+		}
+		if (chain != null)
+			chain.append(buff, off, len);
+		else if (buff == shared && multiPart instanceof MemoryMultiPart)
+			((MemoryMultiPart) multiPart).share(buff, off, len);
+		else
+			multiPart.append(buff, off, len);
+	}
+
+	/**
+	 * check the first bytes of the pending part, create the part and append
+	 * the bytes to it if the part is acceptable
+	 * 
+	 * @return false if the part is rejected
+	 */
+	private boolean sniff() throws IOException {
+		ContentHeaderMap header = pending;
+		pending = null;
+		if (!context.acceptableContent(header, head, 0, headLength) || !create(header)) {
+			if (parser != null)
+				parser.skipPart();
+			else
+				skipping = true;
+			return false;
+		}
+		if (headLength > 0) {
+			if (chain != null)
+				chain.append(head, 0, headLength);
+			else
+				multiPart.append(head, 0, headLength);
+		}
+		return true;
+	}
+
+	public void partEnd() throws IOException {
+		if (pending != null && !sniff() || skipping) {
+			skipping = false;
+			return;
+		}
+		if (chain != null)
+			chain.close();
+		else
+			multiPart.close();
+		files.add(multiPart);
+		multiPart = null;
+		chain = null;
+	}
+
+	/**
+	 * close the part vetoed by an interceptor, and delete the file of it
+	 */
+	private void discard() throws IOException {
+		if (multiPart instanceof MultiPartDiskFile)
+			((MultiPartDiskFile) multiPart).discard();
+		else if (multiPart instanceof DeferredMultiPart)
+			((DeferredMultiPart) multiPart).discard();
+		else
+			multiPart.close();
+		multiPart = null;
+		chain = null;
+	}
+
+	void setRemaining(long remaining) {
+		this.remaining = remaining;
+	}
+
+	void setParser(MultipartParser parser) {
+		this.parser = parser;
+	}
+
+	void setShared(byte[] shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * close the part which does not end as the stream was truncated, the part
+	 * is not collected
+	 * 
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+		if (multiPart != null && !multiPart.isClosed())
+			multiPart.close();
+		multiPart = null;
+		chain = null;
+		pending = null;
+		skipping = false;
+	}
+}
@@ -22,14 +22,28 @@ package net.sourceforge.fastupload;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import net.sourceforge.fastupload.util.MagicBytes;
 
 /**
  * A abstract sub class of {@link MultiPart}.
  * The class provides write data of multipart/form-data boundary into a
  * disk file. just convert <em>file name</em> with specified charset
+ * <p/>
+ * 
+ * If a compression level is set, the bytes are compressed with a
+ * {@link Deflater} while they are written, the file is a zlib stream. The
+ * content is not compressed if its content type or its first bytes tell it is
+ * compressed already, as a JPEG image or a zip file.
+ * <code>getInputStream()</code> decompresses the file.
  * 
  * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
  * 
@@ -41,7 +55,50 @@ public abstract class MultiPartDiskFile extends MultiPart {
 	 */
 	protected String encoding;
 
-	
+	/**
+	 * level of {@link Deflater}, 0 if the file is not compressed
+	 */
+	private int compressionLevel;
+
+	/**
+	 * whether to compress is decided with the first bytes
+	 */
+	private boolean decided;
+
+	/**
+	 * null if the file is not compressed
+	 */
+	private Deflater deflater;
+
+	private byte[] deflated;
+
+	private boolean compressed;
+
+	/**
+	 * charged with the bytes written, null if no disk quota
+	 */
+	private QuotaReservation reservation;
+
+	/**
+	 * bytes charged to the reservation
+	 */
+	private long stored;
+
+	/**
+	 * renames the file after closing, null if none
+	 */
+	private NamingStrategy namingStrategy;
+
+	/**
+	 * stores the file by the digest after closing, null if none
+	 */
+	private DedupStore dedupStore;
+
+	/**
+	 * true if the file is a blob of the dedup store
+	 */
+	private boolean deduplicated;
+
 	/**
 	 * default constructor 
 	 * @param  full file name 
@@ -55,8 +112,261 @@ public abstract class MultiPartDiskFile extends MultiPart {
 		super(name, charset);
 	}
 
-	public boolean toFile(String dest) {
-		return new File(getName()).renameTo(new File(dest));
+	/**
+	 * write bytes to the file as they are
+	 * 
+	 * @throws IOException
+	 */
+	protected abstract void writeBytes(byte[] buff, int off, int len) throws IOException;
+
+	/**
+	 * write the converted bytes of content to the file, compress them if need
+	 * 
+	 * @throws IOException
+	 */
+	protected void store(byte[] buff, int off, int len) throws IOException {
+		if (!decided)
+			decide(buff, off, len);
+		if (deflater == null) {
+			write(buff, off, len);
+			return;
+		}
+		deflater.setInput(buff, off, len);
+		while (!deflater.needsInput())
+			write(deflated, 0, deflater.deflate(deflated));
+	}
+
+	/**
+	 * write the bytes the {@link Deflater} holds, call it before closing the
+	 * file
+	 * 
+	 * @throws IOException
+	 */
+	protected void finishStore() throws IOException {
+		if (!decided)
+			decide(null, 0, 0);
+		if (deflater == null)
+			return;
+		deflater.finish();
+		while (!deflater.finished())
+			write(deflated, 0, deflater.deflate(deflated));
+		deflater.end();
+		deflater = null;
+	}
+
+	/**
+	 * charge the bytes to the reservation before writing them
+	 */
+	private void write(byte[] buff, int off, int len) throws IOException {
+		if (reservation != null && len > 0) {
+			reservation.charge(len);
+			stored += len;
+		}
+		writeBytes(buff, off, len);
+	}
+
+	/**
+	 * release the bytes of the file from the reservation as the file leaves
+	 * the repository
+	 */
+	private boolean released(boolean success) {
+		if (success && reservation != null) {
+			reservation.release(stored);
+			stored = 0;
+		}
+		return success;
+	}
+
+	private void decide(byte[] buff, int off, int len) {
+		decided = true;
+		if (compressionLevel == 0 || MagicBytes.isCompressedType(contentHeaderMap == null ? null : contentHeaderMap.getContentType())
+				|| (buff != null && MagicBytes.isCompressed(buff, off, len)))
+			return;
+		deflater = new Deflater(compressionLevel);
+		deflated = new byte[0x2000];
+		compressed = true;
+	}
+
+	/**
+	 * @return true if the bytes of the file are not the content bytes of the
+	 *         request but transcoded, the digests do not identify them
+	 */
+	protected boolean isTranscoded() {
+		return false;
+	}
+
+	/**
+	 * compress the file with the level of {@link Deflater}, call it before
+	 * writing
+	 * 
+	 * @param compressionLevel
+	 *            1 to 9, 0 if not compress
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	/**
+	 * @return true if the file is compressed
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * move the file to <em>dest</em>, a compressed file is decompressed
+	 */
+	public boolean toFile(String dest) throws IOException {
+		return toFile(dest, false);
+	}
+
+	/**
+	 * move the file to <em>dest</em>
+	 * 
+	 * @param dest
+	 * @param keepCompressed
+	 *            true to move the compressed file as it is, a zlib stream
+	 * @return false if the file is not moved. A deduplicated part is linked
+	 *         to its blob, <em>dest</em> is read only then, and an existing
+	 *         <em>dest</em> is not replaced, see {@link DedupStore}
+	 * @throws IOException
+	 */
+	public boolean toFile(String dest, boolean keepCompressed) throws IOException {
+		if (deduplicated && (!compressed || keepCompressed)) {
+			// the blob is shared, link to it instead of moving it
+			return DedupStore.link(new File(getName()), new File(dest));
+		}
+		if (!compressed || keepCompressed)
+			return released(new File(getName()).renameTo(new File(dest)));
+		InputStream in = getInputStream();
+		FileOutputStream out = new FileOutputStream(dest);
+		try {
+			byte[] buff = new byte[0x2000];
+			for (int c; (c = in.read(buff)) != -1;)
+				out.write(buff, 0, c);
+		} finally {
+			in.close();
+			out.close();
+		}
+		return deduplicated || delete();
+	}
+
+	/**
+	 * delete the file from the repository, a blob of the dedup store is kept
+	 * for the other parts of the same content
+	 * 
+	 * @return true if the file is deleted
+	 */
+	public boolean delete() {
+		return deduplicated || released(new File(getName()).delete());
+	}
+
+	/**
+	 * move the file to the dedup store by the digest of the part, or rename
+	 * it in its directory with the name the naming strategy gives by the
+	 * content, call it after closing
+	 * 
+	 * @param part
+	 *            the part the digests of the content are computed by
+	 * @throws IOException
+	 */
+	void settle(MultiPart part) throws IOException {
+		byte[] digest = dedupStore == null || isTranscoded() ? null : part.getDigest(dedupStore.getAlgorithm());
+		if (digest != null) {
+			// the compressed and the plain files of a digest are two blobs
+			setName(dedupStore.put(new File(getName()), digest, compressed).getPath());
+			deduplicated = true;
+			// the blobs are out of the quota of the repository
+			released(true);
+			return;
+		}
+		String closedName = namingStrategy == null ? null : namingStrategy.closedName(part);
+		if (closedName == null)
+			return;
+		File file = new File(getName());
+		File target = new File(file.getParentFile(), closedName);
+		if (renameNew(file, target))
+			setName(target.getPath());
+	}
+
+	/**
+	 * rename the file to <em>target</em> if it does not exist, the file of
+	 * another part is never replaced
+	 * 
+	 * @return false if the target exists
+	 * @throws IOException
+	 */
+	private static boolean renameNew(File file, File target) throws IOException {
+		try {
+			// creating a link fails atomically if the target exists
+			Files.createLink(target.toPath(), file.toPath());
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} catch (UnsupportedOperationException e) {
+			return moveNew(file, target);
+		} catch (IOException e) {
+			// the file system does not support links
+			return moveNew(file, target);
+		}
+		Files.delete(file.toPath());
+		return true;
+	}
+
+	/**
+	 * move the file to <em>target</em> without the option REPLACE_EXISTING,
+	 * an existing target is left as it is
+	 */
+	private static boolean moveNew(File file, File target) throws IOException {
+		try {
+			Files.move(file.toPath(), target.toPath());
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * close and delete the file of a rejected part, it is neither renamed nor
+	 * stored
+	 */
+	void discard() throws IOException {
+		namingStrategy = null;
+		dedupStore = null;
+		close();
+		delete();
+	}
+
+	void setDedupStore(DedupStore dedupStore) {
+		this.dedupStore = dedupStore;
+	}
+
+	/**
+	 * @return true if the file is a blob of the {@link DedupStore}, shared by
+	 *         the parts of the same content
+	 */
+	public boolean isDeduplicated() {
+		return deduplicated;
+	}
+
+	void setNamingStrategy(NamingStrategy namingStrategy) {
+		this.namingStrategy = namingStrategy;
+	}
+
+	void setReservation(QuotaReservation reservation) {
+		this.reservation = reservation;
+	}
+
+	/**
+	 * @param stored
+	 *            bytes of the file charged to the reservation already
+	 */
+	void setReservation(QuotaReservation reservation, long stored) {
+		this.reservation = reservation;
+		this.stored = stored;
 	}
 
 	@Override
@@ -67,9 +377,11 @@ public abstract class MultiPartDiskFile extends MultiPart {
 
 	/**
 	 * open a {@link FileInputStream} object for the current
-	 * {@link MultiPartDiskFile} object
+	 * {@link MultiPartDiskFile} object, it decompresses a compressed file
 	 */
 	public InputStream getInputStream() throws IOException {
+		if (compressed)
+			return new InflaterInputStream(new FileInputStream(getName()));
 		return new FileInputStream(getName());
 	}
 
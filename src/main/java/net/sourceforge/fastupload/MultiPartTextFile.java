@@ -21,24 +21,55 @@ package net.sourceforge.fastupload;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 /**
- * The class represent a boundary data is binary file. It does not convert
- * content of boundary with specific charset
+ * The class represent a boundary data is text file. It converts content of
+ * boundary from the charset encoding of the request to the specific charset
+ * <p/>
+ * 
+ * The bytes are transcoded with a {@link CharsetDecoder} and a
+ * {@link CharsetEncoder} created once for the file, the bytes of a character
+ * split by two appends are kept till the next append. The bytes are written
+ * as they are if the charsets are byte compatible.
  * 
  * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
  * 
  */
 public class MultiPartTextFile extends MultiPartDiskFile {
 
+	private static final int _BUFFER_SIZE = 0x2000;
+
 	/**
 	 * charset encoding of multipart content
 	 */
 	private String encoding;
 
-	private Writer writer;
+	private FileOutputStream out;
+
+	/**
+	 * null if write the bytes as they are
+	 */
+	private CharsetDecoder decoder;
+
+	private CharsetEncoder encoder;
+
+	/**
+	 * bytes to decode, it keeps the bytes of a split character
+	 */
+	private ByteBuffer bytesIn;
+
+	private CharBuffer chars;
+
+	private ByteBuffer bytesOut;
+
+	private boolean prepared;
 
 	/**
 	 * constructor using default charset
@@ -48,7 +79,7 @@ public class MultiPartTextFile extends MultiPartDiskFile {
 	 */
 	public MultiPartTextFile(String name) throws IOException {
 		super(name);
-		writer = new OutputStreamWriter(new FileOutputStream(name));
+		out = new FileOutputStream(name);
 	}
 
 	/**
@@ -60,22 +91,111 @@ public class MultiPartTextFile extends MultiPartDiskFile {
 	 */
 	public MultiPartTextFile(String name, String charset) throws IOException {
 		super(name, charset);
-		writer = new OutputStreamWriter(new FileOutputStream(name), charset);
-		//writer = new OutputStreamWriter(new FileOutputStream(name));
+		out = new FileOutputStream(name);
 	}
 
 	public void append(byte[] buff, int off, int len) throws IOException {
 		super.append(buff, off, len);
-		if (len > 0) {
-			String value = encoding.equalsIgnoreCase(charset) ? new String(buff, off, len) : new String(buff, off, len, encoding);
-			writer.write(encoding.equalsIgnoreCase(charset) ? value : new String(value.getBytes(charset)));
+		if (!prepared)
+			prepare();
+		if (decoder == null) {
+			store(buff, off, len);
+			return;
+		}
+		while (len > 0) {
+			int n = Math.min(len, bytesIn.remaining());
+			bytesIn.put(buff, off, n);
+			off += n;
+			len -= n;
+			bytesIn.flip();
+			transcode(false);
+			bytesIn.compact();
+		}
+	}
+
+	/**
+	 * create the decoder and encoder if the charsets are not byte
+	 * compatible
+	 */
+	private void prepare() {
+		prepared = true;
+		Charset source = encoding == null ? Charset.forName(charset) : Charset.forName(encoding);
+		Charset target = Charset.forName(charset);
+		if (compatible(source, target))
+			return;
+		decoder = source.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		encoder = target.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		bytesIn = ByteBuffer.allocate(_BUFFER_SIZE);
+		chars = CharBuffer.allocate(_BUFFER_SIZE);
+		bytesOut = ByteBuffer.allocate((int) (_BUFFER_SIZE * encoder.maxBytesPerChar()));
+	}
+
+	/**
+	 * US-ASCII bytes are the same in the charsets of ASCII superset
+	 */
+	private static boolean compatible(Charset source, Charset target) {
+		if (source.equals(target))
+			return true;
+		return source.name().equals("US-ASCII") && (target.name().equals("UTF-8") || target.name().equals("ISO-8859-1"));
+	}
+
+	/**
+	 * decode the bytes in <em>bytesIn</em>, encode the chars, and write the
+	 * encoded bytes when <em>bytesOut</em> is full. The bytes of a split
+	 * character stay in <em>bytesIn</em> if <em>endOfInput</em> is false
+	 */
+	private void transcode(boolean endOfInput) throws IOException {
+		for (;;) {
+			CoderResult result = decoder.decode(bytesIn, chars, endOfInput);
+			encode(false);
+			if (result.isUnderflow())
+				break;
+		}
+		if (endOfInput) {
+			decoder.flush(chars);
+			encode(true);
+			while (encoder.flush(bytesOut).isOverflow())
+				write();
+			write();
+		}
+	}
+
+	private void encode(boolean endOfInput) throws IOException {
+		chars.flip();
+		while (encoder.encode(chars, bytesOut, endOfInput).isOverflow())
+			write();
+		chars.compact();
+	}
+
+	private void write() throws IOException {
+		if (bytesOut.position() > 0) {
+			store(bytesOut.array(), 0, bytesOut.position());
+			bytesOut.clear();
 		}
 	}
 
 	public void close() throws IOException {
 		closed = true;
-		writer.flush();
-		writer.close();
+		try {
+			if (decoder != null) {
+				bytesIn.flip();
+				transcode(true);
+			}
+			finishStore();
+		} finally {
+			out.close();
+		}
+		settle(this);
+	}
+
+	@Override
+	protected void writeBytes(byte[] buff, int off, int len) throws IOException {
+		out.write(buff, off, len);
+	}
+
+	@Override
+	protected boolean isTranscoded() {
+		return decoder != null;
 	}
 
 	public void setEncoding(String encoding) {
@@ -0,0 +1,367 @@
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.util.BoundaryMatcher;
+import net.sourceforge.fastupload.util.UploadChunk;
+
+/**
+ * A non-blocking multipart/form-data parser, the caller pushes bytes into it
+ * as they arrive, from a {@link java.nio.channels.SocketChannel} of an event
+ * loop for example, and a {@link PartListener} receives the part-start,
+ * part-data and part-end events. The parser never waits for bytes, so no
+ * thread is pinned to an upload.
+ * 
+ * <pre>
+ * MultipartParser parser = new MultipartParser(boundary, &quot;UTF-8&quot;, listener);
+ * while (channel.read(buffer) != -1) {
+ * 	buffer.flip();
+ * 	parser.feed(buffer);
+ * 	buffer.clear();
+ * }
+ * </pre>
+ * 
+ * Content bytes are passed to the listener from the fed buffer directly, a
+ * {@link BoundaryMatcher} finds the delimiter even it straddles two buffers.
+ * Only the bytes of a content header split by two buffers are kept till the
+ * next feed, a content header may not exceed <em>maxHeaderSize</em> bytes.
+ * Bytes of a direct {@link ByteBuffer} are parsed through a buffer of
+ * <em>2 * maxHeaderSize</em> bytes.
+ * 
+ * @see net.sourceforge.fastupload.StreamUploadParser
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MultipartParser {
+
+	/**
+	 * discard bytes till the first delimiter
+	 */
+	private static final int _PREAMBLE = 0;
+
+	/**
+	 * read the two bytes behind a delimiter, CRLF or <em>--</em> of the close
+	 * delimiter
+	 */
+	private static final int _DELIMITER = 1;
+
+	/**
+	 * read content header of a part
+	 */
+	private static final int _HEADER = 2;
+
+	/**
+	 * pass content of a part to listener
+	 */
+	private static final int _CONTENT = 3;
+
+	/**
+	 * discard bytes behind the close delimiter
+	 */
+	private static final int _EPILOGUE = 4;
+
+	private PartListener listener;
+
+	private UploadChunk chunk;
+
+	/**
+	 * matcher of the boundary, or of the sub-boundary in a multipart/mixed
+	 * part
+	 */
+	private BoundaryMatcher matcher;
+
+	/**
+	 * matcher of the boundary while parsing a multipart/mixed part
+	 */
+	private BoundaryMatcher outerMatcher;
+
+	/**
+	 * content header of the multipart/mixed part being parsed
+	 */
+	private ContentHeaderMap mixedMap;
+
+	private int state = _PREAMBLE;
+
+	/**
+	 * listener accepts content of current part
+	 */
+	private boolean accepted;
+
+	/**
+	 * max length of a content header
+	 */
+	private int maxHeaderSize;
+
+	/**
+	 * bytes kept till the next feed
+	 */
+	private byte[] carry;
+
+	private int carried;
+
+	/**
+	 * the listener suspends parsing after current event
+	 */
+	private boolean suspended;
+
+	/**
+	 * 
+	 * @param boundary
+	 *            boundary bytes with the <em>--</em> prefix
+	 * @param encoding
+	 *            charset encoding of content header
+	 * @param listener
+	 */
+	public MultipartParser(byte[] boundary, String encoding, PartListener listener) {
+		this(boundary, encoding, listener, 0x1000);
+	}
+
+	public MultipartParser(byte[] boundary, String encoding, PartListener listener, int maxHeaderSize) {
+		super();
+		this.listener = listener;
+		this.maxHeaderSize = maxHeaderSize;
+		this.matcher = UploadChunk.createFinder(boundary).matcher();
+		this.matcher.reset(2);
+		this.chunk = new UploadChunk(null, encoding);
+	}
+
+	/**
+	 * parse all remaining bytes of <em>src</em>, the position of it moves to
+	 * the limit.
+	 * 
+	 * @param src
+	 * @throws IOException
+	 */
+	public void feed(ByteBuffer src) throws IOException {
+		while (src.hasRemaining()) {
+			if (carried > 0 || !src.hasArray()) {
+				if (carry == null)
+					carry = new byte[maxHeaderSize << 1];
+				int n = Math.min(src.remaining(), carry.length - carried);
+				src.get(carry, carried, n);
+				carried += n;
+				int p = parse(carry, 0, carried);
+				System.arraycopy(carry, p, carry, 0, carried - p);
+				carried -= p;
+			} else {
+				byte[] buffer = src.array();
+				int start = src.arrayOffset() + src.position(), end = start + src.remaining();
+				int p = parse(buffer, start, end);
+				src.position(src.limit());
+				if (p < end) {
+					if (carry == null)
+						carry = new byte[maxHeaderSize << 1];
+					System.arraycopy(buffer, p, carry, 0, end - p);
+					carried = end - p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * parse bytes of buffer from <em>pos</em> to <em>end</em> in place, the
+	 * caller keeps the bytes that can not be parsed, and passes them in front
+	 * of the next bytes.
+	 * 
+	 * @return the position of the bytes that can not be parsed till more
+	 *         bytes are read, the position behind the event that suspended
+	 *         parsing, or <em>end</em>
+	 * @throws IOException
+	 */
+	public int parse(byte[] buffer, int pos, int end) throws IOException {
+		suspended = false;
+		while (pos < end) {
+			if (suspended)
+				return pos;
+			switch (state) {
+			case _PREAMBLE:
+			case _CONTENT:
+				int found = matcher.find(buffer, pos, end);
+				// the content of a rejected part is only scanned for the
+				// delimiter, neither passed nor copied
+				if (state == _CONTENT && accepted) {
+					if (matcher.getReleased() > 0)
+						listener.partData(matcher.getDelimiter(), 0, matcher.getReleased());
+					int e = matcher.getContentEnd(pos, end, found);
+					if (e > pos && accepted)
+						listener.partData(buffer, pos, e - pos);
+				}
+				if (found == -1)
+					return end;
+				if (state == _CONTENT && accepted) {
+					accepted = false;
+					listener.partEnd();
+				}
+				pos = found;
+				state = _DELIMITER;
+				break;
+			case _DELIMITER:
+				if (end - pos < 2)
+					return pos;
+				if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+					pos += 2;
+					closeDelimiter();
+				} else {
+					// skip transport padding till CRLF
+					int lf = indexOfLF(buffer, pos, end);
+					if (lf == -1)
+						return carry(pos, end);
+					pos = lf + 1;
+					state = _HEADER;
+				}
+				break;
+			case _HEADER:
+				int ce = indexOfHeaderEnd(buffer, pos, end);
+				if (ce == -1)
+					return carry(pos, end);
+				startPart(chunk.parseContentHeader(buffer, pos, ce));
+				pos = ce;
+				break;
+			default:
+				return end;
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * suspend <em>parse()</em> after the event which the listener is notified,
+	 * a pull parser calls it in <em>partStart()</em> or <em>partEnd()</em> to
+	 * hand over a part before parsing the next bytes. The bytes passed to
+	 * <em>partData()</em> stay untouched till the caller parses again. Do not
+	 * call it while parsing with <em>feed()</em>.
+	 */
+	public void suspend() {
+		suspended = true;
+	}
+
+	/**
+	 * skip the remaining content of current part, the listener calls it in
+	 * <em>partData()</em> when it rejects the part after it started. The
+	 * bytes are only scanned for the next delimiter, and <em>partEnd()</em> is
+	 * not notified.
+	 */
+	public void skipPart() {
+		accepted = false;
+	}
+
+	/**
+	 * @return true if the close delimiter was parsed
+	 */
+	public boolean isFinished() {
+		return state == _EPILOGUE;
+	}
+
+	/**
+	 * @return true if the parser is in the content of a part that the
+	 *         listener accepted
+	 */
+	public boolean isPartOpen() {
+		return accepted;
+	}
+
+	public int getMaxHeaderSize() {
+		return maxHeaderSize;
+	}
+
+	/**
+	 * keep the bytes from <em>pos</em> to <em>end</em> till the next bytes,
+	 * throw a {@link ThresholdException} if they exceed the
+	 * <em>maxHeaderSize</em>
+	 */
+	private int carry(int pos, int end) {
+		if (end - pos > maxHeaderSize)
+			throw ThresholdException.headerThresholdException(maxHeaderSize);
+		return pos;
+	}
+
+	/**
+	 * notify listener the part starts, or start to parse the sub-boundary of a
+	 * multipart/mixed part
+	 */
+	private void startPart(ContentHeaderMap header) throws IOException {
+		if (header.hasMultiPartMixed() && outerMatcher == null) {
+			mixedMap = header;
+			outerMatcher = matcher;
+			matcher = UploadChunk.createFinder(subBoundary(header)).matcher();
+			matcher.reset(2);
+			state = _PREAMBLE;
+			return;
+		}
+
+		if (mixedMap != null && header.getName() == null)
+			header.put("name", mixedMap.getName());
+		matcher.setBinary(!header.isTextable());
+		accepted = listener.partStart(header);
+		state = _CONTENT;
+	}
+
+	/**
+	 * the close delimiter ends the parts of a multipart/mixed part or all
+	 * parts
+	 */
+	private void closeDelimiter() {
+		if (outerMatcher != null) {
+			matcher = outerMatcher;
+			outerMatcher = null;
+			mixedMap = null;
+			state = _PREAMBLE;
+		} else {
+			state = _EPILOGUE;
+		}
+	}
+
+	private byte[] subBoundary(ContentHeaderMap header) {
+		byte[] sub = header.getSubBoundary();
+		byte[] bytes = new byte[sub.length + 2];
+		bytes[0] = bytes[1] = '-';
+		System.arraycopy(sub, 0, bytes, 2, sub.length);
+		return bytes;
+	}
+
+	private int indexOfLF(byte[] buffer, int pos, int end) {
+		for (int i = pos; i < end; i++) {
+			if (buffer[i] == 0x0a)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the position behind the empty line that ends content header, or
+	 *         -1 if the content header does not end in the buffer
+	 */
+	private int indexOfHeaderEnd(byte[] buffer, int pos, int end) {
+		for (int i = pos; (i = indexOfLF(buffer, i, end)) != -1; i++) {
+			if (i == pos + 1 && buffer[pos] == 0x0d)
+				return i + 1;
+			if (i + 2 < end && buffer[i + 1] == 0x0d && buffer[i + 2] == 0x0a)
+				return i + 3;
+			if (i + 2 >= end)
+				return -1;
+		}
+		return -1;
+	}
+}
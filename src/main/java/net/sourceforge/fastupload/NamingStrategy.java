@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+/**
+ * Names the file of a part in the repository, set it by
+ * {@link FileFactory#setNamingStrategy(NamingStrategy)}. The file is created
+ * with the temporary name, and is renamed atomically in its directory after
+ * the part is parsed if the strategy gives a name by the content, unless a
+ * file of that name exists.
+ * 
+ * @see RandomNamingStrategy
+ * @see ClientNamingStrategy
+ * @see ContentAddressedNamingStrategy
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public interface NamingStrategy {
+
+	/**
+	 * @param header
+	 *            content header of a file part
+	 * @return name of the file created for the part, without directory
+	 */
+	String tempName(ContentHeaderMap header);
+
+	/**
+	 * @param part
+	 *            the part whose content is parsed and closed
+	 * @return name the file is renamed to in its directory, null to keep the
+	 *         temporary name
+	 */
+	String closedName(MultiPart part);
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+/**
+ * Selects the {@link ParseMode} of a request in {@link FastUploadParser}, set
+ * it by {@link FileFactory#setParserPolicy(ParserPolicy)}. Without a policy,
+ * a request is parsed in memory if the factory has no repository, or else it
+ * is streamed. A request is always parsed in memory if there is no
+ * repository, whatever the policy selects.
+ * 
+ * @see AdaptiveParserPolicy
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public interface ParserPolicy {
+
+	/**
+	 * @param config
+	 *            configuration of the request
+	 * @param contentLength
+	 *            content length of the request, -1 if unknown
+	 * @param hint
+	 *            the mode the caller prefers, null if none
+	 * @return the mode to parse the request
+	 */
+	ParseMode select(UploadConfig config, long contentLength, ParseMode hint);
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+
+/**
+ * An interceptor of the content of parts, registered on {@link FileFactory}.
+ * It sees every chunk of content before the chunk is appended to the
+ * {@link MultiPart} object, and passes the chunk, or the bytes transformed
+ * from it, to the next interceptor with <code>chain.append()</code>. An
+ * interceptor that does not pass a chunk drops it. So the content is hashed,
+ * compressed, scanned or encrypted while it is parsed, no second pass over
+ * the stored content.
+ * <p/>
+ * 
+ * An interceptor may be shared by parsing threads, it keeps the state of a
+ * part with <code>chain.setState()</code>. A runtime exception thrown by an
+ * interceptor stops parsing, as a {@link net.sourceforge.fastupload.exception.ThresholdException} does.
+ * 
+ * @see FileFactory#addInterceptor(PartInterceptor)
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public interface PartInterceptor {
+
+	/**
+	 * a part is created for a content header
+	 * 
+	 * @param part
+	 * @param chain
+	 * @return false to veto the part, the content of it is skipped and the
+	 *         part is discarded
+	 * @throws IOException
+	 */
+	boolean open(MultiPart part, InterceptorChain chain) throws IOException;
+
+	/**
+	 * a chunk of content, call <code>chain.append()</code> to pass the bytes
+	 * to the next interceptor, the bytes of <em>buff</em> may not be modified
+	 * 
+	 * @throws IOException
+	 */
+	void append(MultiPart part, byte[] buff, int off, int len, InterceptorChain chain) throws IOException;
+
+	/**
+	 * the content of the part ends, the interceptor may pass the bytes it
+	 * holds with <code>chain.append()</code>
+	 * 
+	 * @throws IOException
+	 */
+	void close(MultiPart part, InterceptorChain chain) throws IOException;
+}
@@ -0,0 +1,62 @@
+/*
+ * 
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*  http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+
+/**
+ * receives the events of {@link MultipartParser} while bytes of a
+ * multipart/form-data stream are fed to it.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public interface PartListener {
+
+	/**
+	 * a part starts behind its content header
+	 * 
+	 * @param header
+	 *            content header of the part
+	 * @return false to skip content of the part, then neither
+	 *         <code>partData</code> nor <code>partEnd</code> is called for it
+	 * @throws IOException
+	 */
+	boolean partStart(ContentHeaderMap header) throws IOException;
+
+	/**
+	 * content bytes of current part, the bytes are valid in the call only, as
+	 * the buffer may be reused by the caller of {@link MultipartParser}
+	 * 
+	 * @param buff
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	void partData(byte[] buff, int off, int len) throws IOException;
+
+	/**
+	 * current part ends at a delimiter
+	 * 
+	 * @throws IOException
+	 */
+	void partEnd() throws IOException;
+}
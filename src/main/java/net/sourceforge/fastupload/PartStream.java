@@ -0,0 +1,381 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy iterator of the parts of a multipart/form-data input stream. A part
+ * is handed over as soon as its content header is parsed, and its content is
+ * read from the input stream while the caller reads the {@link InputStream} of
+ * the part, so a file part can be streamed to any sink without a temporary
+ * file and without holding a list of parts.
+ * 
+ * <pre>
+ * PartStream parts = FastUploadParser.parseStream(request, fileFactory);
+ * while (parts.hasNext()) {
+ * 	MultiPart part = parts.next();
+ * 	if (part.isFile())
+ * 		copy(part.getInputStream(), sink);
+ * 	else
+ * 		System.out.format(&quot;%s=%s%n&quot;, part.getFieldName(), part.getString());
+ * }
+ * </pre>
+ * 
+ * Parts are read in order, <em>hasNext()</em> skips the unread content of
+ * current part. The parser reads into one buffer of <em>0x2000</em> bytes as
+ * {@link StreamUploadParser} does, the content bytes are copied from the
+ * buffer to the array of the caller directly. Parts that {@link FileFactory}
+ * does not accept are skipped, the threshold of a part is checked while
+ * reading. The bytes the request reserved from the memory budget and the disk
+ * quota are released after the last part, or when reading fails.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class PartStream extends UploadParser implements Iterator<MultiPart> {
+
+	private int bufferSize = 0x2000;
+
+	private byte[] buffer = new byte[bufferSize];
+
+	private int start, end;
+
+	private boolean eof;
+
+	private MultipartParser parser;
+
+	/**
+	 * the last parse was suspended with bytes to parse
+	 */
+	private boolean suspended;
+
+	/**
+	 * the listener suspended the last parse
+	 */
+	private boolean event;
+
+	/**
+	 * content header of the part to hand over
+	 */
+	private ContentHeaderMap nextHeader;
+
+	/**
+	 * the part handed over last, its content is being read
+	 */
+	private StreamingMultiPart current;
+
+	public PartStream(InputStream inputSteam, FileFactory fileFactory, byte[] boundary) {
+		this(inputSteam, new UploadContext(fileFactory.getConfig(), fileFactory.getEncoding()), boundary);
+	}
+
+	public PartStream(InputStream inputSteam, UploadContext context, byte[] boundary) {
+		super(inputSteam, context, boundary);
+		this.parser = new MultipartParser(boundary, encoding, new Listener(), bufferSize >> 1);
+	}
+
+	/**
+	 * parse till the next part is found, the unread content of current part is
+	 * skipped
+	 */
+	public boolean hasNext() {
+		try {
+			if (current != null) {
+				current.detach();
+				current = null;
+			}
+			while (nextHeader == null && !parser.isFinished()) {
+				if (!parseNext())
+					break;
+			}
+			if (nextHeader != null)
+				return true;
+			// no more parts
+			finish();
+			return false;
+		} catch (IOException e) {
+			finish();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public MultiPart next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		try {
+			current = new StreamingMultiPart(this, nextHeader, config.getCharset());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		current.setThreshold(config.getThreshold());
+		current.setDigests(config.createDigests());
+		nextHeader = null;
+		return current;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * store every remaining part in memory or in the repository with the
+	 * {@link FileFactory}, as {@link StreamUploadParser} does.
+	 */
+	@Override
+	public List<MultiPart> parseList() throws IOException {
+		MultiPartCollector collector = new MultiPartCollector(context, files);
+		byte[] buff = new byte[bufferSize];
+		while (hasNext()) {
+			MultiPart part = next();
+			if (!collector.partStart(part.getContentHeaderMap()))
+				continue;
+			InputStream in = part.getInputStream();
+			for (int c; (c = in.read(buff)) != -1;)
+				collector.partData(buff, 0, c);
+			collector.partEnd();
+		}
+		return files;
+	}
+
+	/**
+	 * parse the bytes till an event suspends the parser, read bytes if all
+	 * bytes are parsed or a content header is split
+	 * 
+	 * @return false if the input stream ends
+	 * @throws IOException
+	 */
+	boolean parseNext() throws IOException {
+		if (!suspended || start == end) {
+			if (eof)
+				return false;
+			if (start == end) {
+				start = end = 0;
+			} else if (end == buffer.length) {
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				start = 0;
+			}
+			int c;
+			try {
+				c = inputSteam.read(buffer, end, buffer.length - end);
+			} catch (IOException e) {
+				finish();
+				throw e;
+			}
+			if (c == -1) {
+				eof = true;
+				inputSteam.close();
+				finish();
+				return false;
+			}
+			readBytes += c;
+			end += c;
+		}
+		event = false;
+		start = parser.parse(buffer, start, end);
+		suspended = event && start < end;
+		return true;
+	}
+
+	/**
+	 * release the reservations of the request, no part is kept by the stream
+	 */
+	private void finish() {
+		context.releaseMemory();
+		context.finishDisk();
+	}
+
+	/**
+	 * receives the events of the parser, and suspends it on the start and the
+	 * end of a part
+	 */
+	private class Listener implements PartListener {
+
+		public boolean partStart(ContentHeaderMap header) throws IOException {
+			if (!context.acceptable(header))
+				return false;
+			nextHeader = header;
+			event = true;
+			parser.suspend();
+			return true;
+		}
+
+		public void partData(byte[] buff, int off, int len) throws IOException {
+			if (current != null)
+				current.offer(buff, off, len);
+		}
+
+		public void partEnd() throws IOException {
+			if (current != null)
+				current.end();
+			event = true;
+			parser.suspend();
+		}
+	}
+
+	/**
+	 * a part whose content is read from the input stream of {@link PartStream}
+	 * on demand, its content can be read once.
+	 */
+	static class StreamingMultiPart extends MultiPart {
+
+		private PartStream stream;
+
+		/**
+		 * slices of the read buffer passed by one parse, the released bytes of
+		 * a delimiter and the content bytes
+		 */
+		private byte[][] slices = new byte[2][];
+
+		private int[] offsets = new int[2];
+
+		private int[] lengths = new int[2];
+
+		private int count, index;
+
+		private boolean ended;
+
+		private boolean detached;
+
+		private InputStream inputStream;
+
+		private byte[] contentBuffer;
+
+		StreamingMultiPart(PartStream stream, ContentHeaderMap header, String charset) throws IOException {
+			super(header.getName(), charset);
+			this.stream = stream;
+			this.contentHeaderMap = header;
+		}
+
+		void offer(byte[] buff, int off, int len) {
+			if (detached)
+				return;
+			slices[count] = buff;
+			offsets[count] = off;
+			lengths[count++] = len;
+		}
+
+		void end() {
+			ended = true;
+		}
+
+		/**
+		 * the stream moves to the next part, the unread content is skipped
+		 */
+		void detach() {
+			detached = true;
+			count = index = 0;
+		}
+
+		/**
+		 * read the content of the part to the array
+		 */
+		int read(byte[] b, int off, int len) throws IOException {
+			while (index == count) {
+				if (ended || detached)
+					return -1;
+				count = index = 0;
+				if (!stream.parseNext())
+					throw new EOFException("the input stream ends in the content of part " + getName());
+			}
+			int n = Math.min(len, lengths[index]);
+			System.arraycopy(slices[index], offsets[index], b, off, n);
+			offsets[index] += n;
+			if ((lengths[index] -= n) == 0)
+				slices[index++] = null;
+			super.append(b, off, n);
+			return n;
+		}
+
+		/**
+		 * write the unread content to the file
+		 */
+		@Override
+		public boolean toFile(String name) throws IOException {
+			InputStream in = getInputStream();
+			FileOutputStream out = new FileOutputStream(name);
+			try {
+				byte[] buff = new byte[0x2000];
+				for (int c; (c = in.read(buff)) != -1;)
+					out.write(buff, 0, c);
+			} finally {
+				out.close();
+			}
+			return true;
+		}
+
+		@Override
+		protected void close() throws IOException {
+			detach();
+			closed = true;
+		}
+
+		/**
+		 * the input stream reads the content of the part from the request
+		 * directly, it ends at the boundary
+		 */
+		@Override
+		public InputStream getInputStream() throws IOException {
+			if (inputStream == null) {
+				inputStream = new InputStream() {
+					@Override
+					public int read() throws IOException {
+						byte[] b = new byte[1];
+						return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						if (len == 0)
+							return 0;
+						return StreamingMultiPart.this.read(b, off, len);
+					}
+				};
+			}
+			return inputStream;
+		}
+
+		/**
+		 * read the unread content into an array, the array is kept for the
+		 * next call
+		 */
+		@Override
+		public byte[] getContentBuffer() {
+			if (contentBuffer == null) {
+				try {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					byte[] buff = new byte[0x2000];
+					for (int c; (c = read(buff, 0, buff.length)) != -1;)
+						out.write(buff, 0, c);
+					contentBuffer = out.toByteArray();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return contentBuffer;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+
+/**
+ * The bytes reserved from a {@link DiskQuota} for a request, the files of the
+ * request charge the bytes they write to it.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+class QuotaReservation {
+
+	private final DiskQuota quota;
+
+	private final String tenant;
+
+	/**
+	 * bytes reserved and not written yet
+	 */
+	private final AtomicLong unused;
+
+	QuotaReservation(DiskQuota quota, String tenant, long reserved) {
+		super();
+		this.quota = quota;
+		this.tenant = tenant;
+		this.unused = new AtomicLong(reserved);
+	}
+
+	/**
+	 * charge the bytes about to be written, reserve more from the quota if
+	 * the reservation is used up
+	 * 
+	 * @throws ThresholdException
+	 *             if the quota is exceeded
+	 */
+	void charge(long bytes) {
+		for (;;) {
+			long current = unused.get();
+			if (current < bytes) {
+				if (!quota.tryReserve(tenant, bytes - current))
+					throw ThresholdException.quotaException(tenant);
+				if (unused.compareAndSet(current, 0))
+					return;
+				quota.release(tenant, bytes - current);
+			} else if (unused.compareAndSet(current, current - bytes)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * release the bytes of a file moved out of the repository or deleted
+	 */
+	void release(long bytes) {
+		if (bytes > 0)
+			quota.release(tenant, bytes);
+	}
+
+	/**
+	 * release the bytes reserved and not written, after the request is parsed
+	 */
+	void finish() {
+		release(unused.getAndSet(0));
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Names a file with a random prefix of the current thread and a counter of
+ * the process, such as <em>k3q0v8e1m2ht4f.tmp</em>. No lock is taken and no
+ * object but the name is created, the counter keeps names unique in the
+ * process and the prefix keeps them unique among processes sharing a
+ * repository. The names are lower case, so they are unique on a case
+ * insensitive file system too.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class RandomNamingStrategy implements NamingStrategy {
+
+	private static final char[] _DIGITS = "0123456789abcdefghijklmnopqrstuv".toCharArray();
+
+	/**
+	 * chars of the prefix, 5 random bits for each
+	 */
+	private static final int _PREFIX_LENGTH = 12;
+
+	private static final String _SUFFIX = ".tmp";
+
+	private static final AtomicLong _COUNTER = new AtomicLong();
+
+	private static final ThreadLocal<char[]> _PREFIX = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			long bits = ThreadLocalRandom.current().nextLong();
+			char[] prefix = new char[_PREFIX_LENGTH];
+			for (int i = 0; i < _PREFIX_LENGTH; i++, bits >>>= 5)
+				prefix[i] = _DIGITS[(int) bits & 0x1f];
+			return prefix;
+		}
+	};
+
+	/**
+	 * @return a unique name with the suffix <em>.tmp</em>
+	 */
+	static String generate() {
+		return generate(_SUFFIX);
+	}
+
+	/**
+	 * @return a unique name ended with the suffix
+	 */
+	static String generate(String suffix) {
+		long n = _COUNTER.incrementAndGet();
+		char[] chars = new char[_PREFIX_LENGTH + 13 + suffix.length()];
+		char[] prefix = _PREFIX.get();
+		System.arraycopy(prefix, 0, chars, 0, _PREFIX_LENGTH);
+		int pos = _PREFIX_LENGTH;
+		do {
+			chars[pos++] = _DIGITS[(int) n & 0x1f];
+			n >>>= 5;
+		} while (n != 0);
+		suffix.getChars(0, suffix.length(), chars, pos);
+		return new String(chars, 0, pos + suffix.length());
+	}
+
+	public String tempName(ContentHeaderMap header) {
+		return generate();
+	}
+
+	/**
+	 * @return null, the temporary name is kept
+	 */
+	public String closedName(MultiPart part) {
+		return null;
+	}
+}
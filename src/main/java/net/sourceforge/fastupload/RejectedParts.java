@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records of the parts rejected while parsing a request, by the allowed types
+ * and extensions of {@link FileFactory}, or by the first bytes of a file part.
+ * The content of a rejected part is skipped by the boundary scan only.
+ * <p/>
+ * 
+ * An object belongs to one request, the content headers of the first
+ * <em>limit</em> rejected parts are kept, and the others are only counted, so
+ * a request with many rejected parts does not hold more memory.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class RejectedParts {
+
+	private static final int _DEFAULT_LIMIT = 16;
+
+	private int limit;
+
+	private List<ContentHeaderMap> headers = new ArrayList<ContentHeaderMap>(0);
+
+	private int count;
+
+	public RejectedParts() {
+		this(_DEFAULT_LIMIT);
+	}
+
+	/**
+	 * @param limit
+	 *            max number of the content headers kept
+	 */
+	public RejectedParts(int limit) {
+		super();
+		this.limit = limit;
+	}
+
+	/**
+	 * record a rejected part
+	 * 
+	 * @param header
+	 *            content header of the part
+	 */
+	void add(ContentHeaderMap header) {
+		count++;
+		if (headers.size() < limit)
+			headers.add(header);
+	}
+
+	/**
+	 * @return the content headers of the first rejected parts
+	 */
+	public List<ContentHeaderMap> getHeaders() {
+		return Collections.unmodifiableList(headers);
+	}
+
+	/**
+	 * @return number of all rejected parts
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return true if some rejected parts are counted without their content
+	 *         headers
+	 */
+	public boolean isTruncated() {
+		return count > headers.size();
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+}
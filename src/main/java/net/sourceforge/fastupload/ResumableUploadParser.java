@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+
+import net.sourceforge.fastupload.exception.FileUploadParserException;
+import net.sourceforge.fastupload.exception.ThresholdException;
+
+/**
+ * A concrete class of {@link UploadParser} that parses one chunk of a
+ * resumable upload. A large file is sent by several multipart/form-data
+ * requests, each one has a file part with a chunk of the file, and tells the
+ * position of the chunk with a header like <em>Content-Range</em>:
+ * 
+ * <pre>
+ * Upload-Id: 6f1c0d2e9a8b4c7d
+ * Content-Range: bytes 1048576-2097151/10485760
+ * </pre>
+ * 
+ * The first chunk has no upload id, an {@link UploadSession} is created in the
+ * {@link SessionStore} and a session file of the whole length is preallocated,
+ * the client sends the other chunks with the id of the session. The bytes of a
+ * chunk are written at its offset of the session file through a
+ * {@link MultiPartBinaryFile} as {@link StreamUploadParser} writes a part, so
+ * chunks may arrive in any order or in parallel, and a lost chunk is sent
+ * again from <code>UploadSession.getOffset()</code>.
+ * <p/>
+ * 
+ * <code>parseList()</code> returns the other parts of the request, and the
+ * completed file as a {@link MultiPartBinaryFile} when the last chunk is
+ * received, the metadata of the session is removed then.
+ * <p/>
+ * 
+ * The length of a session is limited by the threshold and the max content
+ * length of the config, and is charged to the {@link DiskQuota} as the first
+ * chunk creates the session, it is released when the completed file is moved
+ * or deleted. Release it by <code>DiskQuota.release()</code> if a session is
+ * abandoned and deleted from the store.
+ * 
+ * @see FastUploadParser#parseResumable(javax.servlet.http.HttpServletRequest,
+ *      FileFactory, SessionStore)
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class ResumableUploadParser extends UploadParser {
+
+	private int bufferSize = 0x2000;
+
+	private SessionStore store;
+
+	/**
+	 * id of the session, null till the first chunk creates it
+	 */
+	private String uploadId;
+
+	/**
+	 * range of the chunk, the end is exclusive
+	 */
+	private long chunkStart, chunkEnd;
+
+	/**
+	 * length of the whole file
+	 */
+	private long length;
+
+	private UploadSession session;
+
+	private MultipartParser parser;
+
+	private Listener listener = new Listener();
+
+	/**
+	 * @param uploadId
+	 *            id of the session, null for the first chunk
+	 * @param contentRange
+	 *            range of the chunk, <em>bytes start-end/length</em>, the end
+	 *            is inclusive
+	 */
+	public ResumableUploadParser(InputStream inputSteam, UploadContext context, byte[] boundary, SessionStore store, String uploadId,
+			String contentRange) {
+		super(inputSteam, context, boundary);
+		this.store = store;
+		this.uploadId = uploadId;
+		long[] range = parseContentRange(contentRange);
+		this.chunkStart = range[0];
+		this.chunkEnd = range[1];
+		this.length = range[2];
+		this.parser = new MultipartParser(boundary, encoding, listener, bufferSize >> 1);
+	}
+
+	/**
+	 * @return the start, the exclusive end and the length of
+	 *         <em>bytes start-end/length</em>
+	 */
+	static long[] parseContentRange(String contentRange) {
+		if (contentRange == null || !contentRange.startsWith("bytes "))
+			throw FileUploadParserException.contentRangeException(contentRange);
+		int i = contentRange.indexOf('-'), j = contentRange.indexOf('/');
+		if (i == -1 || j < i)
+			throw FileUploadParserException.contentRangeException(contentRange);
+		long[] range = new long[3];
+		try {
+			range[0] = Long.parseLong(contentRange.substring(6, i).trim());
+			range[1] = Long.parseLong(contentRange.substring(i + 1, j).trim()) + 1;
+			range[2] = Long.parseLong(contentRange.substring(j + 1).trim());
+		} catch (NumberFormatException e) {
+			throw FileUploadParserException.contentRangeException(contentRange);
+		}
+		if (range[0] < 0 || range[1] <= range[0] || range[1] > range[2])
+			throw FileUploadParserException.contentRangeException(contentRange);
+		return range;
+	}
+
+	@Override
+	public List<MultiPart> parseList() throws IOException {
+		byte[] buffer = new byte[bufferSize];
+		int start = 0, end = 0, c = 0;
+		boolean broken = true;
+		try {
+			for (;;) {
+				if (start == end) {
+					start = end = 0;
+				} else if (end == buffer.length) {
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					end -= start;
+					start = 0;
+				}
+				if ((c = inputSteam.read(buffer, end, buffer.length - end)) == -1)
+					break;
+				readBytes += c;
+				end += c;
+				start = parser.parse(buffer, start, end);
+			}
+			broken = false;
+		} finally {
+			// the bytes of a broken chunk are recorded, the client resumes
+			// behind them
+			broken = listener.interrupt() || broken;
+			inputSteam.close();
+			// the fields of a chunk are small, the session file is charged
+			// by itself
+			context.releaseMemory();
+			context.finishDisk();
+		}
+		if (broken)
+			throw rangeException();
+		return files;
+	}
+
+	/**
+	 * load the session of the upload id, or create one for the first chunk
+	 */
+	private void openSession(ContentHeaderMap header) throws IOException {
+		if (uploadId == null) {
+			if (config.getThreshold() > 0 && length > config.getThreshold())
+				throw ThresholdException.sessionThresholdException(length);
+			if (config.getMaxContentLength() > 0 && length > config.getMaxContentLength())
+				throw ThresholdException.sessionThresholdException(length);
+			// the session file is preallocated with the whole length
+			context.chargeDisk(length);
+			uploadId = UUID.randomUUID().toString().replace("-", "");
+			session = new UploadSession(uploadId, header.getFileName(), header.getContentType(), length);
+			store.create(session);
+		} else {
+			session = store.load(uploadId);
+			if (session == null)
+				throw FileUploadParserException.sessionException(uploadId);
+			if (session.getLength() != length)
+				throw rangeException();
+		}
+	}
+
+	/**
+	 * record the range of the bytes written, and add the completed file to the
+	 * parts if the chunk completes the session
+	 */
+	private void commit(MultiPart chunk) throws IOException {
+		if (chunk.getLength() == 0)
+			return;
+		session = store.commit(uploadId, chunkStart, chunkStart + chunk.getLength());
+		if (session == null)
+			throw FileUploadParserException.sessionException(uploadId);
+		if (!session.isComplete() || !store.remove(uploadId))
+			return;
+		MultiPartBinaryFile file = new MultiPartBinaryFile(store.getDataFile(uploadId).getPath(), config.getCharset(), length);
+		file.close();
+		file.setBytes(length);
+		context.chargedDisk(file, length);
+		file.setContentHeaderMap(chunk.getContentHeaderMap());
+		files.add(file);
+	}
+
+	private FileUploadParserException rangeException() {
+		return FileUploadParserException.contentRangeException("bytes " + chunkStart + "-" + (chunkEnd - 1) + "/" + length);
+	}
+
+	/**
+	 * @return the session of the upload, null if the request has no file part
+	 */
+	public UploadSession getSession() {
+		return session;
+	}
+
+	/**
+	 * @return id of the session, the client sends it with the next chunks
+	 */
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	/**
+	 * creates a {@link MemoryMultiPart} for a field, and writes the first
+	 * file part into the session file
+	 */
+	private class Listener implements PartListener {
+
+		private MultiPart part;
+
+		private boolean chunk;
+
+		public boolean partStart(ContentHeaderMap header) throws IOException {
+			if (!context.acceptable(header))
+				return false;
+			chunk = header.isFile();
+			if (!chunk) {
+				part = new MemoryMultiPart(header.getName(), config.getCharset());
+			} else if (session == null) {
+				openSession(header);
+				part = new MultiPartBinaryFile(store.getDataFile(uploadId).getPath(), config.getCharset(), chunkStart);
+			} else {
+				// one chunk a request
+				return false;
+			}
+			part.setContentHeaderMap(header);
+			return true;
+		}
+
+		public void partData(byte[] buff, int off, int len) throws IOException {
+			if (chunk && part.getLength() + len > chunkEnd - chunkStart) {
+				part.close();
+				part = null;
+				throw rangeException();
+			}
+			part.append(buff, off, len);
+		}
+
+		public void partEnd() throws IOException {
+			MultiPart ended = part;
+			part = null;
+			ended.close();
+			if (!chunk) {
+				files.add(ended);
+				return;
+			}
+			commit(ended);
+			if (ended.getLength() != chunkEnd - chunkStart)
+				throw rangeException();
+		}
+
+		/**
+		 * close the part the request ends in, and record the bytes written if
+		 * it is the chunk
+		 * 
+		 * @return true if the chunk is broken
+		 */
+		boolean interrupt() throws IOException {
+			if (part == null)
+				return false;
+			MultiPart broken = part;
+			part = null;
+			broken.close();
+			if (!chunk)
+				return false;
+			commit(broken);
+			return true;
+		}
+	}
+}
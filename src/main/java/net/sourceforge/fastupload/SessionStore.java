@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The store of {@link UploadSession} objects of resumable uploads, and of the
+ * session files the chunks are written to. {@link FileSessionStore} keeps
+ * them in a directory, another implementation may keep the metadata
+ * elsewhere, but the session file must be on the local file system.
+ * <p/>
+ * 
+ * Chunks of a session may arrive in parallel, an implementation records the
+ * range of a chunk atomically.
+ * 
+ * @see ResumableUploadParser
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public interface SessionStore {
+
+	/**
+	 * save a new session, and preallocate its session file of the length of
+	 * the session
+	 * 
+	 * @throws IOException
+	 */
+	void create(UploadSession session) throws IOException;
+
+	/**
+	 * @return the session, null if not found
+	 * @throws IOException
+	 */
+	UploadSession load(String id) throws IOException;
+
+	/**
+	 * record that the bytes from <em>start</em> to <em>end</em> exclusive
+	 * were written to the session file
+	 * 
+	 * @return the session updated
+	 * @throws IOException
+	 */
+	UploadSession commit(String id, long start, long end) throws IOException;
+
+	/**
+	 * @return the session file the chunks are written to
+	 */
+	File getDataFile(String id);
+
+	/**
+	 * remove the metadata of a completed session, the session file is left
+	 * to the {@link MultiPart} of the completed file
+	 * 
+	 * @return false if the session was removed already, by the request of
+	 *         another chunk completing it at the same time
+	 * @throws IOException
+	 */
+	boolean remove(String id) throws IOException;
+
+	/**
+	 * delete the metadata and the session file of an aborted session
+	 * 
+	 * @throws IOException
+	 */
+	void delete(String id) throws IOException;
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spreads the files of a repository over sub directories, every level is
+ * named with two hex digits of the hash of the file name, so a directory
+ * holds 1/256 of the files of its parent. A sub directory is created when the
+ * first file is placed in it, the created ones are cached so no more
+ * <code>mkdirs()</code> is called for them.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+final class ShardedRepository {
+
+	/**
+	 * max levels of sub directories, one byte of the hash for each
+	 */
+	static final int MAX_LEVELS = 4;
+
+	private static final char[] _HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	private final String root;
+
+	private final int levels;
+
+	private final Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * @param root
+	 *            path of the repository
+	 * @param levels
+	 *            1 to {@link #MAX_LEVELS}
+	 */
+	ShardedRepository(String root, int levels) {
+		super();
+		this.root = root.endsWith("/") ? root.substring(0, root.length() - 1) : root;
+		this.levels = levels;
+	}
+
+	/**
+	 * @return full name of the file in its sub directory, the directory is
+	 *         created if it does not exist
+	 * @throws IOException
+	 *             if the directory can not be created
+	 */
+	String resolve(String name) throws IOException {
+		return resolve(name, hash(name));
+	}
+
+	/**
+	 * @param h
+	 *            bits naming the sub directories, the lowest byte for the
+	 *            first level
+	 * @return full name of the file in its sub directory
+	 * @throws IOException
+	 */
+	String resolve(String name, int h) throws IOException {
+		StringBuilder sb = new StringBuilder(root.length() + levels * 3 + name.length() + 1).append(root);
+		for (int i = 0; i < levels; i++) {
+			int b = (h >>> (i << 3)) & 0xff;
+			sb.append('/').append(_HEX[b >>> 4]).append(_HEX[b & 0xf]);
+		}
+		String dir = sb.toString();
+		if (!created.contains(dir)) {
+			File file = new File(dir);
+			if (!file.mkdirs() && !file.isDirectory())
+				throw new IOException("can not create directory " + dir);
+			created.add(dir);
+		}
+		return sb.append('/').append(name).toString();
+	}
+
+	/**
+	 * spread the bits of the hash code of the name
+	 */
+	private static int hash(String name) {
+		int h = name.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ (h >>> 16);
+	}
+
+	int getLevels() {
+		return levels;
+	}
+}
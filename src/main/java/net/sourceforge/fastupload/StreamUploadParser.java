@@ -24,13 +24,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 
-import net.sourceforge.fastupload.util.BoundaryFinder;
-import net.sourceforge.fastupload.util.UploadChunk;
+import net.sourceforge.fastupload.exception.ThresholdException;
 
 /**
  * A concrete class of {@link UploadParser} that override <em> parseList() </em>
  * function. It parse the buffer that read <em>0x2000</em> bytes from
  * {@link ServletInputStream} , till all bytes was read and parsed.
+ * <p/>
+ * 
+ * The parser reads into one fixed buffer and pushes the bytes to a
+ * {@link MultipartParser} in place, the content bytes of a part are appended
+ * to the {@link MultiPart} object from the read buffer directly. Only a
+ * content header split by two reads is moved to the front of the buffer, and a
+ * content header longer than half of the buffer is rejected with a
+ * {@link ThresholdException}. So a request needs <em>0x2000</em> bytes to
+ * parse, and the bytes are copied once at most.
  * 
  * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
  * 
@@ -39,149 +47,75 @@ public class StreamUploadParser extends UploadParser {
 
 	private int bufferSize = 0x2000;
 
-	private UploadChunk chunk;
-
-	private MultiPart multiPartFile;
+	private MultiPartCollector collector;
 
-	private ContentHeaderMap contentMap;
+	private MultipartParser parser;
 
-	private BoundaryFinder boundaryFinder;
+	/**
+	 * content length of the request, -1 if unknown
+	 */
+	private int length = -1;
 
 	public StreamUploadParser(InputStream inputSteam, FileFactory fileFactory, byte[] boundary) {
 		super(inputSteam, fileFactory, boundary);
-		this.boundaryFinder = new BoundaryFinder(boundary);
-		this.chunk = new UploadChunk(boundaryFinder, fileFactory.getEncoding());
+		init();
 	}
 
-	@Override
-	public List<MultiPart> parseList() throws IOException {
-		byte[] delta = null;
-		int c = 0;
-		byte[] buff = new byte[bufferSize];
-		while ((c = inputSteam.read(buff)) != -1) {
-			readBytes += c;
-			if (delta != null) {
-				chunk.setBuffer(delta);
-				// chunk = new UploadChunk(delta, boundaryFinder, 0);
-				chunk.append(buff, 0, c);
-				delta = null;
-			} else {
-				// chunk = new UploadChunk(buffer, boundaryFinder, 0, c);
-				chunk.setBuffer(buff, 0, c);
-			}
-			while (chunk.find()) {
-				chunk.readContentHeader();
-				contentMap = chunk.getContentHeaderMap();
-
-				if (fileFactory.acceptable(contentMap)) {
-					if (contentMap.hasMultiPartMixed()) {
-						this.writeMixedMultiPart();
-					} else {
-						if (multiPartFile != null && !multiPartFile.isClosed()) {
-							multiPartFile.append(chunk.getBuffer(), 0, chunk.getBoundStart() - 2);
-							multiPartFile.close();
-							files.add(multiPartFile);
-						}
-						this.writeMultiPart();
-					}
-				}
-			}
-
-			/*
-			 * not found any boundary, append the whole chunk to the opening
-			 * file; <br />
-			 * 
-			 * if only found the start boundary, but not find the whole content
-			 * header, copy the bytes into <em>delta</em> buffer, <br />
-			 * 
-			 * else parse the content header to create a {@link MultiPartFile}
-			 * object
-			 */
-			if (chunk.getBoundStart() == -1 && chunk.getBoundEnd() == -1 && multiPartFile != null && !multiPartFile.isClosed()) {
-				multiPartFile.append(chunk.getBuffer(), 0, chunk.getBufferLength());
-			} else if (chunk.getBoundStart() >= 0 && chunk.getBoundEnd() == -1) {
-				if (multiPartFile != null && !multiPartFile.isClosed()) {
-					multiPartFile.append(chunk.getBuffer(), 0, chunk.getBoundStart() - 2);
-					multiPartFile.close();
-					files.add(multiPartFile);
-				}
-
-				// append to delta?
-				int ct = chunk.readContentHeader();
-				if (ct != -1) { // has whole content header
-					contentMap = chunk.getContentHeaderMap();
-					if (fileFactory.acceptable(contentMap)) {
-						if (contentMap.hasMultiPartMixed()) {
-							// parse mixed multipart data
-							if (chunk.readContentHeader() != -1) {
-								this.writeMixedMultiPart();
-
-								// if not found the whole sub-boundary
-								if (chunk.getBoundStart() > 0 && chunk.getBoundEnd() == -1) {
-									ct = chunk.readContentHeader();
-									if (ct == -1)
-										delta = createDelta();
-									else {
-										contentMap = chunk.getContentHeaderMap();
-										if (fileFactory.acceptable(contentMap)) {
-											multiPartFile = fileFactory.createMultiPartFile(contentMap);
-											if (multiPartFile != null) {
-												multiPartFile.append(chunk.getBuffer(), ct, chunk.getBufferLength() - ct);
-											}
-										}
-									}
-								}
-							} else {
-								delta = createDelta();
-							}
-						} else {
-							// create a multipartfile when not multipart/mixed
-							// content type
-							multiPartFile = fileFactory.createMultiPartFile(contentMap);
-							if (multiPartFile != null && !multiPartFile.isClosed()) {
-								multiPartFile.append(chunk.getBuffer(), ct, chunk.getBufferLength() - ct);
-							}
-						}
-					}
-				} else {
-					delta = createDelta(); // create delta buffer as first part
-											// of buffer in next loop
-				}
-			}
-		}
-
-		inputSteam.close();
-
-		return files;
+	public StreamUploadParser(InputStream inputSteam, UploadContext context, byte[] boundary) {
+		super(inputSteam, context, boundary);
+		init();
 	}
 
-	private byte[] createDelta() {
-		int len = chunk.getBufferLength() - chunk.getBoundStart();
-		byte[] delta = new byte[len];
-		System.arraycopy(chunk.getBuffer(), chunk.getBoundStart(), delta, 0, len);
-		return delta;
+	/**
+	 * @param length
+	 *            content length of the request, the bytes not parsed are
+	 *            mapped for a binary file if
+	 *            {@link FileFactory#isMappedWrite()}
+	 */
+	public StreamUploadParser(InputStream inputSteam, FileFactory fileFactory, byte[] boundary, int length) {
+		this(inputSteam, fileFactory, boundary);
+		this.length = length;
 	}
 
-	private void writeMultiPart() throws IOException {
-		contentMap = chunk.getContentHeaderMap();
-		if (fileFactory.acceptable(contentMap)) {
-			multiPartFile = fileFactory.createMultiPartFile(contentMap);
+	public StreamUploadParser(InputStream inputSteam, UploadContext context, byte[] boundary, int length) {
+		this(inputSteam, context, boundary);
+		this.length = length;
+	}
 
-			int s = chunk.getContentStart();
-			int len = chunk.getBoundEnd() - s - 2;
-			multiPartFile.append(chunk.getBuffer(), s, len);
-			multiPartFile.close();
-			files.add(multiPartFile);
-		}
+	private void init() {
+		this.collector = new MultiPartCollector(context, files);
+		// the header bytes moved to the front of buffer never exceed the
+		// bytes read
+		this.parser = new MultipartParser(boundary, encoding, collector, bufferSize >> 1);
+		this.collector.setParser(parser);
 	}
 
-	private void writeMixedMultiPart() throws IOException {
-		byte[] subBound = contentMap.getSubBoundary();
-		chunk.setSubBoundary(subBound);
-		while (chunk.findSub()) {
-			this.writeMultiPart();
-			if (chunk.endSub())
+	@Override
+	public List<MultiPart> parseList() throws IOException {
+		byte[] buffer = new byte[bufferSize];
+		int start = 0, end = 0, c = 0;
+		for (;;) {
+			if (start == end) {
+				start = end = 0;
+			} else if (end == buffer.length) {
+				// move bytes of a content header split by two reads to the
+				// front, they never exceed half of the buffer
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				start = 0;
+			}
+			if ((c = inputSteam.read(buffer, end, buffer.length - end)) == -1)
 				break;
+			readBytes += c;
+			end += c;
+			if (length > 0)
+				collector.setRemaining(length - readBytes + end - start);
+			start = parser.parse(buffer, start, end);
 		}
+
+		collector.close();
+		inputSteam.close();
+
+		return files;
 	}
 }
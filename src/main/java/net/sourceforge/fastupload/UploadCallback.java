@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.List;
+
+/**
+ * Callback of asynchronous parsing, the parser calls one of the methods once in
+ * the container thread which notifies that the request body is read, or
+ * reading failed.
+ * 
+ * @see FastUploadParser#parseAsync(javax.servlet.AsyncContext, FileFactory, UploadCallback)
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public interface UploadCallback {
+
+	/**
+	 * all bytes of the request are read and parsed
+	 * 
+	 * @param parts
+	 *            the parsed {@link MultiPart} objects
+	 */
+	void completed(List<MultiPart> parts);
+
+	/**
+	 * reading or parsing the request failed, a part which does not end is
+	 * closed and not collected
+	 * 
+	 * @param t
+	 */
+	void failed(Throwable t);
+}
@@ -0,0 +1,440 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import net.sourceforge.fastupload.util.ContentDigest;
+import net.sourceforge.fastupload.util.MagicBytes;
+
+/**
+ * An immutable configuration of parsing, compiled from the properties of a
+ * {@link FileFactory} by {@link FileFactory#getConfig()}. The allowed types
+ * and extensions are compiled to sets once, so one object serves the requests
+ * of all threads without locking. The state of a request is kept by an
+ * {@link UploadContext}.
+ * 
+ * <pre>
+ * FileFactory fileFactory = FileFactory.getInstance(&quot;UTF-8&quot;);
+ * fileFactory.setRepository(&quot;/tmp/upload&quot;);
+ * fileFactory.setAllowedTypes(&quot;image/jpeg, image/png&quot;);
+ * UploadConfig config = fileFactory.getConfig();
+ * // per request in any thread
+ * FastUploadParser fastUploadParser = new FastUploadParser(request, config);
+ * </pre>
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public final class UploadConfig {
+
+	private final String charset;
+
+	private final String encoding;
+
+	private final String repository;
+
+	private final long maxContentLength;
+
+	private final int threshold;
+
+	private final int memoryThreshold;
+
+	private final boolean mappedWrite;
+
+	private final int compressionLevel;
+
+	private final boolean randomFileName;
+
+	private final boolean sniffContent;
+
+	private final MemoryBudget memoryBudget;
+
+	private final ParserPolicy parserPolicy;
+
+	private final DiskQuota diskQuota;
+
+	/**
+	 * null if the repository is flat
+	 */
+	private final ShardedRepository shards;
+
+	private final NamingStrategy namingStrategy;
+
+	private final DedupStore dedupStore;
+
+	private final String[] digestAlgorithms;
+
+	private final PartInterceptor[] interceptors;
+
+	private final Set<String> allowedTypesSet;
+
+	private final Set<String> allowedExtensionsSet;
+
+	/**
+	 * the factory the config is compiled from
+	 */
+	private final FileFactory fileFactory;
+
+	/**
+	 * true if a sub class of the factory overrides
+	 * {@link FileFactory#createMultiPartFile(ContentHeaderMap)}, the parts are
+	 * created by the override then
+	 */
+	private final boolean createHook;
+
+	/**
+	 * true if a sub class of the factory overrides
+	 * {@link FileFactory#acceptable(ContentHeaderMap)}, the parts are checked
+	 * by the override then
+	 */
+	private final boolean acceptHook;
+
+	UploadConfig(FileFactory fileFactory, Set<String> allowedTypesSet, Set<String> allowedExtensionsSet, String[] digestAlgorithms,
+			PartInterceptor[] interceptors) {
+		super();
+		this.charset = fileFactory.getCharset();
+		this.encoding = fileFactory.getEncoding();
+		this.repository = fileFactory.getRepository() == null || fileFactory.getRepository().trim().equals("") ? null : fileFactory
+				.getRepository();
+		this.maxContentLength = fileFactory.getMaxContentLength();
+		this.threshold = fileFactory.getThreshold();
+		this.memoryThreshold = fileFactory.getMemoryThreshold();
+		this.mappedWrite = fileFactory.isMappedWrite();
+		this.compressionLevel = fileFactory.getCompressionLevel();
+		this.randomFileName = fileFactory.isRandomFileName();
+		this.sniffContent = fileFactory.isSniffContent();
+		this.memoryBudget = fileFactory.getMemoryBudget();
+		this.parserPolicy = fileFactory.getParserPolicy();
+		this.diskQuota = fileFactory.getDiskQuota();
+		this.shards = repository == null || fileFactory.getShardLevels() == 0 ? null : new ShardedRepository(repository,
+				fileFactory.getShardLevels());
+		this.allowedTypesSet = allowedTypesSet == null ? null : Collections.unmodifiableSet(allowedTypesSet);
+		this.allowedExtensionsSet = allowedExtensionsSet == null ? null : Collections.unmodifiableSet(allowedExtensionsSet);
+		if (fileFactory.getNamingStrategy() != null)
+			this.namingStrategy = fileFactory.getNamingStrategy();
+		else
+			this.namingStrategy = randomFileName ? new RandomNamingStrategy() : new ClientNamingStrategy();
+		this.dedupStore = fileFactory.getDedupStore();
+		if (namingStrategy instanceof ContentAddressedNamingStrategy)
+			digestAlgorithms = withAlgorithm(digestAlgorithms, ((ContentAddressedNamingStrategy) namingStrategy).getAlgorithm());
+		if (dedupStore != null)
+			digestAlgorithms = withAlgorithm(digestAlgorithms, dedupStore.getAlgorithm());
+		this.digestAlgorithms = digestAlgorithms;
+		this.interceptors = interceptors;
+		this.fileFactory = fileFactory;
+		this.createHook = overrides(fileFactory.getClass(), "createMultiPartFile");
+		this.acceptHook = overrides(fileFactory.getClass(), "acceptable");
+	}
+
+	/**
+	 * @return true if a sub class of {@link FileFactory} declares the method
+	 *         of a {@link ContentHeaderMap} parameter
+	 */
+	private static boolean overrides(Class<?> c, String name) {
+		for (; c != FileFactory.class; c = c.getSuperclass()) {
+			try {
+				c.getDeclaredMethod(name, ContentHeaderMap.class);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// not declared by the class
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * create the part by the override of
+	 * {@link FileFactory#createMultiPartFile(ContentHeaderMap)} if a sub class
+	 * of the factory has one, or by the config
+	 * 
+	 * @param header
+	 * @param encoding
+	 *            charset encoding of the request
+	 * @throws IOException
+	 */
+	@SuppressWarnings("deprecation")
+	MultiPart createMultiPartFile(ContentHeaderMap header, String encoding) throws IOException {
+		return createHook ? fileFactory.createMultiPartFile(header) : newMultiPartFile(header, encoding);
+	}
+
+	/**
+	 * create an object extends {@link MultiPart} for the part, as
+	 * {@link FileFactory#createMultiPartFile(ContentHeaderMap)} describes.
+	 * 
+	 * @param header
+	 * @param encoding
+	 *            charset encoding of the request
+	 * @return
+	 * @throws IOException
+	 */
+	MultiPart newMultiPartFile(ContentHeaderMap header, String encoding) throws IOException {
+		MultiPart mpf = null;
+
+		if (!header.isFile()) { // always MemoryMultiPartData if not a file
+			mpf = charset == null ? new MemoryMultiPart(header.getName()) : new MemoryMultiPart(header.getName(), charset);
+		} else if (repository == null) { // memory file
+			mpf = charset == null ? new MemoryMultiPart(header.getName()) : new MemoryMultiPart(header.getName(), charset);
+		} else if (memoryThreshold > 0) { // memory file till it spills to disk
+			DeferredMultiPart dmp = new DeferredMultiPart(marshalFileName(header), charset == null ? Charset.defaultCharset()
+					.name() : charset, memoryThreshold);
+			dmp.setEncoding(encoding);
+			dmp.setCompressionLevel(compressionLevel);
+			dmp.setNamingStrategy(namingStrategy);
+			dmp.setDedupStore(dedupStore);
+			mpf = dmp;
+		} else { // disk file
+			if (header.isTextable()) {
+				MultiPartTextFile mptf = charset == null ? new MultiPartTextFile(marshalFileName(header)) : new MultiPartTextFile(
+						marshalFileName(header), charset);
+				mptf.setEncoding(encoding);
+				mptf.setCompressionLevel(compressionLevel);
+				mptf.setNamingStrategy(namingStrategy);
+				mptf.setDedupStore(dedupStore);
+				mpf = mptf;
+			} else {
+				MultiPartBinaryFile mpbf = charset == null ? new MultiPartBinaryFile(marshalFileName(header))
+						: new MultiPartBinaryFile(marshalFileName(header), charset);
+				mpbf.setCompressionLevel(compressionLevel);
+				mpbf.setNamingStrategy(namingStrategy);
+				mpbf.setDedupStore(dedupStore);
+				mpf = mpbf;
+			}
+		}
+
+		if (mpf != null) {
+			mpf.setContentHeaderMap(header);
+			mpf.setThreshold(threshold);
+			mpf.setDigests(createDigests());
+		}
+		return mpf;
+	}
+
+	/**
+	 * @return a new chain of the interceptors for the part, null if none
+	 */
+	InterceptorChain createChain(MultiPart part) {
+		return interceptors == null ? null : new InterceptorChain(interceptors, part);
+	}
+
+	/**
+	 * @return new digests of the algorithms, null if none
+	 */
+	ContentDigest[] createDigests() {
+		if (digestAlgorithms == null)
+			return null;
+		ContentDigest[] digests = new ContentDigest[digestAlgorithms.length];
+		for (int i = 0; i < digests.length; i++)
+			digests[i] = ContentDigest.getInstance(digestAlgorithms[i]);
+		return digests;
+	}
+
+	/**
+	 * @return the algorithms with the one the naming strategy needs
+	 */
+	private static String[] withAlgorithm(String[] algorithms, String algorithm) {
+		if (algorithms == null)
+			return new String[] { algorithm };
+		for (String e : algorithms)
+			if (e.equalsIgnoreCase(algorithm))
+				return algorithms;
+		String[] all = Arrays.copyOf(algorithms, algorithms.length + 1);
+		all[algorithms.length] = algorithm;
+		return all;
+	}
+
+	private String marshalFileName(ContentHeaderMap header) throws IOException {
+		String name = namingStrategy.tempName(header);
+		if (shards != null)
+			return shards.resolve(name);
+		int i = repository.lastIndexOf("/");
+		return repository + (i == repository.length() - 1 ? "" : "/") + name;
+	}
+
+	/**
+	 * check the part by the override of
+	 * {@link FileFactory#acceptable(ContentHeaderMap)} if a sub class of the
+	 * factory has one, or by the config
+	 */
+	@SuppressWarnings("deprecation")
+	boolean acceptable(ContentHeaderMap contentHeaderMap) {
+		return acceptHook ? fileFactory.acceptable(contentHeaderMap) : acceptableType(contentHeaderMap);
+	}
+
+	/**
+	 * check whether a given {@link ContentHeaderMap} object is acceptable with
+	 * the allowed types and extensions
+	 * 
+	 * @param contentHeaderMap
+	 *            ContentHeaderMap
+	 * @return boolean
+	 */
+	boolean acceptableType(ContentHeaderMap contentHeaderMap) {
+		if (allowedTypesSet != null && contentHeaderMap.getContentType() != null)
+			return allowedTypesSet.contains(contentHeaderMap.getContentType());
+		if (contentHeaderMap.isFile() && allowedExtensionsSet != null) {
+			String extName = getExtension(contentHeaderMap.getFileName());
+			return extName == null || allowedExtensionsSet.contains(extName);
+		} else
+			return true;
+	}
+
+	/**
+	 * check whether the first bytes of a file part are acceptable with the
+	 * allowed types. the part is rejected if the bytes are of a known format
+	 * that is not allowed, or the declared content type has a known format
+	 * that the bytes do not match.
+	 * 
+	 * @param contentHeaderMap
+	 *            ContentHeaderMap of the part
+	 * @param b
+	 *            first bytes of the content, at most
+	 *            {@link MagicBytes#SNIFF_LENGTH} bytes
+	 * @return boolean
+	 */
+	boolean acceptableContent(ContentHeaderMap contentHeaderMap, byte[] b, int off, int len) {
+		if (!sniffContent || allowedTypesSet == null)
+			return true;
+		String declared = contentHeaderMap.getContentType();
+		if (declared != null && MagicBytes.matches(declared, b, off, len))
+			return true;
+		String sniffed = MagicBytes.sniff(b, off, len);
+		return sniffed != null ? allowedTypesSet.contains(sniffed) : !MagicBytes.hasSignature(declared);
+	}
+
+	private String getExtension(String name) {
+		int i = name.lastIndexOf(".");
+		return i == -1 ? null : name.substring(i);
+	}
+
+	/**
+	 * @return the factory the config is compiled from
+	 */
+	FileFactory getFileFactory() {
+		return fileFactory;
+	}
+
+	public String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return charset encoding of content headers if a request does not tell
+	 *         it
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * @return the repository, null if parts are kept in memory
+	 */
+	public String getRepository() {
+		return repository;
+	}
+
+	public long getMaxContentLength() {
+		return maxContentLength;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public int getMemoryThreshold() {
+		return memoryThreshold;
+	}
+
+	public boolean isMappedWrite() {
+		return mappedWrite;
+	}
+
+	public int getCompressionLevel() {
+		return compressionLevel;
+	}
+
+	public boolean isRandomFileName() {
+		return randomFileName;
+	}
+
+	public boolean isSniffContent() {
+		return sniffContent;
+	}
+
+	/**
+	 * @return budget of the requests parsed in memory, null if unlimited
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return the policy selecting the parse mode, null if by the repository
+	 *         only
+	 */
+	public ParserPolicy getParserPolicy() {
+		return parserPolicy;
+	}
+
+	/**
+	 * @return quota of the bytes in the repository, null if unlimited
+	 */
+	public DiskQuota getDiskQuota() {
+		return diskQuota;
+	}
+
+	/**
+	 * @return levels of hex sub directories of the repository, 0 if flat
+	 */
+	public int getShardLevels() {
+		return shards == null ? 0 : shards.getLevels();
+	}
+
+	/**
+	 * @return the strategy naming the files of the repository
+	 */
+	public NamingStrategy getNamingStrategy() {
+		return namingStrategy;
+	}
+
+	/**
+	 * @return the store of the file parts by the content, null if none
+	 */
+	public DedupStore getDedupStore() {
+		return dedupStore;
+	}
+
+	public Set<String> getAllowedTypes() {
+		return allowedTypesSet;
+	}
+
+	public Set<String> getAllowedExtensions() {
+		return allowedExtensionsSet;
+	}
+
+	public List<PartInterceptor> getInterceptors() {
+		return interceptors == null ? Collections.<PartInterceptor> emptyList() : Collections.unmodifiableList(Arrays
+				.asList(interceptors));
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+
+/**
+ * The state of parsing one request with a shared {@link UploadConfig}, the
+ * charset encoding of the request and the records of the rejected parts. It
+ * is created for every request, and is used by the thread parsing it only.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public final class UploadContext {
+
+	private final UploadConfig config;
+
+	private final String encoding;
+
+	private final RejectedParts rejectedParts = new RejectedParts();
+
+	/**
+	 * key of the tenant the files are charged to, null if none
+	 */
+	private final String tenant;
+
+	/**
+	 * bytes reserved from the memory budget of the config
+	 */
+	private long memoryReserved;
+
+	/**
+	 * bytes reserved from the memory budget and not allocated yet
+	 */
+	private long memoryUnused;
+
+	/**
+	 * true if the request is parsed in memory with the memory budget
+	 */
+	private boolean memoryAdmitted;
+
+	/**
+	 * bytes reserved from the disk quota, null until a file is created
+	 */
+	private QuotaReservation reservation;
+
+	/**
+	 * @param config
+	 * @param encoding
+	 *            charset encoding of the request, the encoding of the config
+	 *            if null
+	 */
+	public UploadContext(UploadConfig config, String encoding) {
+		this(config, encoding, null);
+	}
+
+	/**
+	 * @param config
+	 * @param encoding
+	 *            charset encoding of the request, the encoding of the config
+	 *            if null
+	 * @param tenant
+	 *            key of the tenant the files are charged to in the
+	 *            {@link DiskQuota}, null if none
+	 */
+	public UploadContext(UploadConfig config, String encoding, String tenant) {
+		super();
+		this.config = config;
+		this.encoding = encoding == null ? config.getEncoding() : encoding;
+		this.tenant = tenant;
+	}
+
+	/**
+	 * record the bytes the parser reserved from the memory budget of the
+	 * config before reading, they are released by
+	 * <code>releaseMemory()</code>
+	 */
+	void admitMemory(long bytes) {
+		this.memoryReserved = bytes;
+		this.memoryUnused = bytes;
+		this.memoryAdmitted = true;
+	}
+
+	/**
+	 * charge the bytes about to be allocated, reserve more from the memory
+	 * budget if the reservation is used up. Nothing is charged if the request
+	 * is not admitted with the budget.
+	 * 
+	 * @throws ThresholdException
+	 *             if the budget is exhausted
+	 * @throws IOException
+	 */
+	void chargeMemory(long bytes) throws IOException {
+		if (!memoryAdmitted)
+			return;
+		if (memoryUnused >= bytes) {
+			memoryUnused -= bytes;
+			return;
+		}
+		MemoryBudget budget = config.getMemoryBudget();
+		long more = bytes - memoryUnused;
+		boolean reserved;
+		if (budget.getPolicy() == MemoryBudget.Policy.WAIT) {
+			try {
+				reserved = budget.reserve(more, budget.getWaitMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		} else {
+			reserved = budget.tryReserve(more);
+		}
+		if (!reserved)
+			throw ThresholdException.memoryBudgetException(memoryReserved + more);
+		memoryReserved += more;
+		memoryUnused = 0;
+	}
+
+	/**
+	 * release the bytes reserved from the memory budget, when the parts in
+	 * memory are not used any more or parsing failed
+	 */
+	void releaseMemory() {
+		if (memoryReserved > 0) {
+			config.getMemoryBudget().release(memoryReserved);
+			memoryReserved = 0;
+			memoryUnused = 0;
+		}
+	}
+
+	/**
+	 * reserve the bytes from the disk quota of the config before parsing
+	 * 
+	 * @throws ThresholdException
+	 *             if the quota is exceeded
+	 */
+	void reserveDisk(long bytes) {
+		DiskQuota quota = config.getDiskQuota();
+		if (quota == null || reservation != null)
+			return;
+		if (!quota.tryReserve(tenant, bytes))
+			throw ThresholdException.quotaException(tenant);
+		reservation = new QuotaReservation(quota, tenant, bytes);
+	}
+
+	/**
+	 * reserve and charge the whole length of a file before it is
+	 * preallocated, such as the file of a resumable upload. The bytes stay
+	 * charged after the request, till the file leaves the repository.
+	 * 
+	 * @throws ThresholdException
+	 *             if the quota is exceeded
+	 */
+	void chargeDisk(long bytes) {
+		if (config.getDiskQuota() == null)
+			return;
+		reserveDisk(bytes);
+		reservation.charge(bytes);
+	}
+
+	/**
+	 * release the charged bytes of the file when it leaves the repository
+	 * 
+	 * @param charged
+	 *            bytes of the file charged by a request before
+	 */
+	void chargedDisk(MultiPartDiskFile file, long charged) {
+		if (config.getDiskQuota() == null)
+			return;
+		if (reservation == null)
+			reservation = new QuotaReservation(config.getDiskQuota(), tenant, 0);
+		file.setReservation(reservation, charged);
+	}
+
+	/**
+	 * release the bytes reserved and not written to the repository
+	 */
+	void finishDisk() {
+		if (reservation != null)
+			reservation.finish();
+	}
+
+	/**
+	 * check the content header with the config, and record the part if it is
+	 * rejected
+	 */
+	boolean acceptable(ContentHeaderMap header) {
+		if (config.acceptable(header))
+			return true;
+		reject(header);
+		return false;
+	}
+
+	/**
+	 * check the first bytes of a file part with the config, and record the
+	 * part if it is rejected
+	 */
+	boolean acceptableContent(ContentHeaderMap header, byte[] b, int off, int len) {
+		if (config.acceptableContent(header, b, off, len))
+			return true;
+		reject(header);
+		return false;
+	}
+
+	/**
+	 * record the part in the rejected parts of the request, and in the
+	 * exceptionals of the factory
+	 */
+	private void reject(ContentHeaderMap header) {
+		rejectedParts.add(header);
+		config.getFileFactory().addExceptional(header);
+	}
+
+	MultiPart createMultiPartFile(ContentHeaderMap header) throws IOException {
+		MultiPart part = config.createMultiPartFile(header, encoding);
+		if (config.getDiskQuota() != null) {
+			if (reservation == null)
+				reservation = new QuotaReservation(config.getDiskQuota(), tenant, 0);
+			if (part instanceof MultiPartDiskFile)
+				((MultiPartDiskFile) part).setReservation(reservation);
+			else if (part instanceof DeferredMultiPart)
+				((DeferredMultiPart) part).setReservation(reservation);
+		}
+		return part;
+	}
+
+	public UploadConfig getConfig() {
+		return config;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	public RejectedParts getRejectedParts() {
+		return rejectedParts;
+	}
+}
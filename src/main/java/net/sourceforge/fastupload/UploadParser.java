@@ -40,8 +40,25 @@ public abstract class UploadParser {
 
 	protected InputStream inputSteam;
 
+	/**
+	 * the factory the config is compiled from
+	 * 
+	 * @deprecated read the {@link UploadConfig} of the parser, a factory may
+	 *             be changed after the config is compiled
+	 */
+	@Deprecated
 	protected FileFactory fileFactory;
 
+	/**
+	 * configuration shared by requests
+	 */
+	protected UploadConfig config;
+
+	/**
+	 * state of the request
+	 */
+	protected UploadContext context;
+
 	protected byte[] boundary;
 
 	protected byte[] subBoundary;
@@ -51,9 +68,16 @@ public abstract class UploadParser {
 	protected int readBytes;
 
 	public UploadParser(InputStream inputSteam, FileFactory fileFactory, byte[] boundary) {
+		this(inputSteam, new UploadContext(fileFactory.getConfig(), fileFactory.getEncoding()), boundary);
+	}
+
+	public UploadParser(InputStream inputSteam, UploadContext context, byte[] boundary) {
 		super();
 		this.inputSteam = inputSteam;
-		this.fileFactory = fileFactory;
+		this.context = context;
+		this.config = context.getConfig();
+		this.fileFactory = config.getFileFactory();
+		this.encoding = context.getEncoding();
 		this.boundary = boundary;
 	}
 
@@ -84,5 +108,13 @@ public abstract class UploadParser {
 	public int getReadBytes() {
 		return readBytes;
 	}
+
+	public RejectedParts getRejectedParts() {
+		return context.getRejectedParts();
+	}
+
+	public UploadContext getContext() {
+		return context;
+	}
 	
 }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Metadata of a resumable upload, the file is sent in chunks by requests
+ * tagged with the upload id, and every chunk is written at its offset of the
+ * session file. The session records the byte ranges received, a client asks
+ * the next offset to resume after the connection is lost.
+ * 
+ * @see ResumableUploadParser
+ * @see SessionStore
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class UploadSession {
+
+	private String id;
+
+	private String fileName;
+
+	private String contentType;
+
+	/**
+	 * length of the whole file
+	 */
+	private long length;
+
+	/**
+	 * sorted and merged byte ranges received, the end is exclusive
+	 */
+	private List<long[]> ranges = new ArrayList<long[]>();
+
+	private long lastModified;
+
+	public UploadSession(String id, String fileName, String contentType, long length) {
+		super();
+		this.id = id;
+		this.fileName = fileName;
+		this.contentType = contentType;
+		this.length = length;
+		this.lastModified = System.currentTimeMillis();
+	}
+
+	/**
+	 * record the range from <em>start</em> to <em>end</em> exclusive, it is
+	 * merged with the adjacent or overlapped ranges
+	 */
+	void addRange(long start, long end) {
+		int i = 0;
+		while (i < ranges.size() && ranges.get(i)[1] < start)
+			i++;
+		while (i < ranges.size() && ranges.get(i)[0] <= end) {
+			long[] range = ranges.remove(i);
+			start = Math.min(start, range[0]);
+			end = Math.max(end, range[1]);
+		}
+		ranges.add(i, new long[] { start, end });
+		lastModified = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return the first byte not received, a client resumes from it
+	 */
+	public long getOffset() {
+		return ranges.isEmpty() || ranges.get(0)[0] > 0 ? 0 : ranges.get(0)[1];
+	}
+
+	/**
+	 * @return number of bytes received
+	 */
+	public long getReceived() {
+		long received = 0;
+		for (long[] range : ranges)
+			received += range[1] - range[0];
+		return received;
+	}
+
+	public boolean isComplete() {
+		return getOffset() == length;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the properties of the session, ranges are written as
+	 *         <em>start-end</em> separated by comma
+	 */
+	Properties toProperties() {
+		Properties props = new Properties();
+		props.setProperty("id", id);
+		if (fileName != null)
+			props.setProperty("fileName", fileName);
+		if (contentType != null)
+			props.setProperty("contentType", contentType);
+		props.setProperty("length", String.valueOf(length));
+		props.setProperty("lastModified", String.valueOf(lastModified));
+		StringBuilder sb = new StringBuilder();
+		for (long[] range : ranges) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(range[0]).append('-').append(range[1]);
+		}
+		props.setProperty("ranges", sb.toString());
+		return props;
+	}
+
+	static UploadSession fromProperties(Properties props) {
+		UploadSession session = new UploadSession(props.getProperty("id"), props.getProperty("fileName"),
+				props.getProperty("contentType"), Long.parseLong(props.getProperty("length")));
+		String ranges = props.getProperty("ranges", "");
+		if (ranges.length() > 0) {
+			for (String e : ranges.split(",")) {
+				int i = e.indexOf('-');
+				session.ranges.add(new long[] { Long.parseLong(e.substring(0, i)), Long.parseLong(e.substring(i + 1)) });
+			}
+		}
+		session.lastModified = Long.parseLong(props.getProperty("lastModified", "0"));
+		return session;
+	}
+
+	@Override
+	public String toString() {
+		return "UploadSession [id=" + id + ", fileName=" + fileName + ", received=" + getReceived() + "/" + length + "]";
+	}
+}
@@ -35,4 +35,16 @@ public class FileUploadParserException extends RuntimeException {
 		super("incorrect encripty type, expected: multipart/form-data");
 	}
 
+	public FileUploadParserException(String msg) {
+		super(msg);
+	}
+
+	public static FileUploadParserException contentRangeException(String contentRange) {
+		return new FileUploadParserException("incorrect content range: " + contentRange);
+	}
+
+	public static FileUploadParserException sessionException(String uploadId) {
+		return new FileUploadParserException("no upload session: " + uploadId);
+	}
+
 }
@@ -44,4 +44,21 @@ public class ThresholdException extends RuntimeException {
 	public static ThresholdException fileThresholdException(MultiPart multiPartFile) {
 		return new ThresholdException("a MultiPartFile length exceeds ParseThreshold: " + multiPartFile);
 	}
+
+	public static ThresholdException headerThresholdException(int maxHeaderSize) {
+		return new ThresholdException("a content header length exceeds " + maxHeaderSize + " bytes");
+	}
+
+	public static ThresholdException memoryBudgetException(long length) {
+		return new ThresholdException("memory budget is exhausted for a request of " + length + " bytes");
+	}
+
+	public static ThresholdException quotaException(String tenant) {
+		return new ThresholdException(tenant == null ? "disk quota of the repository is exceeded" : "disk quota is exceeded for tenant: "
+				+ tenant);
+	}
+
+	public static ThresholdException sessionThresholdException(long length) {
+		return new ThresholdException("length of a resumable upload exceeds threshold: " + length);
+	}
 }
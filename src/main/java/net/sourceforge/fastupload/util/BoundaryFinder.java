@@ -20,6 +20,9 @@
 
 package net.sourceforge.fastupload.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * 
  * The class references the <em>Boyer-Moore string search algorithm</em> in <a
@@ -32,29 +35,141 @@ package net.sourceforge.fastupload.util;
  * 
  * The class make a bit enhancement that enable original code searching java
  * bytes. also, the class refactor the original code removing static functions.
+ * <p/>
  * 
+ * Besides the Boyer-Moore engine, the class provides a word-at-a-time engine,
+ * see {@link Engine#WORD_SCAN}. It reads 8 bytes of the buffer as a
+ * <code>long</code>, tests all of them for the first two bytes of the boundary
+ * at once, and compares the whole boundary only at the candidate offsets.
+ * Boundaries always start with <em>--</em> in a multipart/form-data stream, so
+ * the candidates are rare in any content. The word scan beats Boyer-Moore on
+ * text, whose bytes occur in the boundary and keep the Boyer-Moore shifts
+ * short, but not on binary content, so a finder created with the word scan
+ * engine still scans with Boyer-Moore when the caller tells the content is
+ * binary, see {@link #indexOf(byte[], int, int, boolean)}.
  * 
  * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
  * 
  */
 public class BoundaryFinder {
 
+	/**
+	 * scanning engine of a {@link BoundaryFinder}
+	 */
+	public enum Engine {
+		/**
+		 * byte by byte Boyer-Moore search, works for any boundary
+		 */
+		BOYER_MOORE,
+
+		/**
+		 * 8 bytes a time search for the first two bytes of the boundary, needs
+		 * a boundary of {@link BoundaryFinder#WORD_SCAN_MIN_LENGTH} bytes at
+		 * least, which does not consist of one byte only
+		 */
+		WORD_SCAN
+	}
+
+	/**
+	 * minimal boundary length that {@link Engine#WORD_SCAN} engine accepts
+	 */
+	public static final int WORD_SCAN_MIN_LENGTH = 4;
+
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private static final long ONE_BYTES = 0x0101010101010101L;
+
 	private byte[] boundary;
 
 	private int[] charTable;
 
 	private int[] offsetTable;
 
+	private Engine engine;
+
+	/**
+	 * the first byte of boundary repeated 8 times
+	 */
+	private long firstWord;
+
+	/**
+	 * the second byte of boundary repeated 8 times
+	 */
+	private long secondWord;
+
+	/**
+	 * count of the same bytes that the boundary starts with
+	 */
+	private int leading;
+
+	/**
+	 * distance between two words checked by the word scan
+	 */
+	private int stride;
+
+	/**
+	 * the last buffer wrapped for the word scan, the buffers of a parser are
+	 * reused, so it is wrapped once
+	 */
+	private ByteBuffer words;
+
 	public BoundaryFinder(byte[] boundary) {
+		this(boundary, Engine.BOYER_MOORE);
+	}
+
+	/**
+	 * create a finder that scans with the given engine, the finder falls back
+	 * to {@link Engine#BOYER_MOORE} if the boundary is too short for
+	 * {@link Engine#WORD_SCAN}
+	 * 
+	 * @param boundary
+	 * @param engine
+	 */
+	public BoundaryFinder(byte[] boundary, Engine engine) {
 		super();
 		this.boundary = boundary;
 		charTable = makeCharTable(boundary);
 		offsetTable = makeOffsetTable(boundary);
+		leading = 0;
+		while (leading < boundary.length && boundary[leading] == boundary[0])
+			leading++;
+		if (engine == Engine.WORD_SCAN && boundary.length >= WORD_SCAN_MIN_LENGTH && leading < boundary.length) {
+			this.engine = Engine.WORD_SCAN;
+			firstWord = (boundary[0] & 0xffL) * ONE_BYTES;
+			secondWord = (boundary[1] & 0xffL) * ONE_BYTES;
+			stride = leading > 1 ? leading + 5 : 7;
+		} else {
+			this.engine = Engine.BOYER_MOORE;
+		}
 	}
 	
 	public int getBoundaryLength() {
 		return boundary.length;
 	}
+
+	/**
+	 * @return the boundary bytes to be search
+	 */
+	public byte[] getBoundary() {
+		return boundary;
+	}
+
+	/**
+	 * create a {@link BoundaryMatcher} object that finds the delimiter of the
+	 * boundary across buffers read one after another
+	 * 
+	 * @return
+	 */
+	public BoundaryMatcher matcher() {
+		return new BoundaryMatcher(this);
+	}
+
+	/**
+	 * @return the engine that the finder scans with
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
  
 	/**
 	 * Returns the index within this string of the first occurrence of the
@@ -92,9 +207,24 @@ public class BoundaryFinder {
 	 * @return The start index of the boundary
 	 */
 	public int indexOf(byte[] buffer, int start, int end) {
+		return indexOf(buffer, start, end, false);
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the boundary within the
+	 * range of buffer, scans binary content with Boyer-Moore whatever the
+	 * engine is. If it is not a substring, return -1.
+	 * 
+	 * @param binary
+	 *            true if the content is binary
+	 * @return The start index of the boundary
+	 */
+	public int indexOf(byte[] buffer, int start, int end, boolean binary) {
 		if (boundary.length == 0) {
 			return 0;
 		}
+		if (engine == Engine.WORD_SCAN && !binary)
+			return wordScan(buffer, start, end);
 		for (int i = boundary.length - 1 + start, j; i < end;) {
 			for (j = boundary.length - 1; boundary[j] == buffer[i]; --i, --j) {
 				if (j == 0) {
@@ -108,6 +238,83 @@ public class BoundaryFinder {
 		return -1;
 	}
 
+	/**
+	 * scan <em>8</em> bytes a time for the offsets where the first two bytes
+	 * of boundary occur, then compare the whole boundary at the offsets. Words
+	 * overlap one byte so a pair crossing two words is not missed.
+	 * <p/>
+	 * 
+	 * When the boundary starts with a run of same bytes, as the <em>--</em>
+	 * prefix, an occurrence holds <em>leading - 1</em> pairs of the byte, so
+	 * the scan checks a word every <em>leading + 5</em> bytes only, and looks
+	 * for the end of the run to locate the boundary.
+	 */
+	private int wordScan(byte[] buffer, int start, int end) {
+		int last = end - boundary.length;
+		int covered = start;
+		if (last - start >= 8) {
+			ByteBuffer words = this.words;
+			if (words == null || words.array() != buffer)
+				this.words = words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+			int limit = Math.min(last, end - 8);
+			for (int i = start; i <= limit;) {
+				long word = words.getLong(i);
+				long first = zeroBytes(word ^ firstWord);
+				long pairs = first & ((leading > 1 ? first : zeroBytes(word ^ secondWord)) >>> 8);
+				int base = i;
+				covered = i + 7;
+				i += stride;
+				while (pairs != 0) {
+					int k = base + (Long.numberOfTrailingZeros(pairs) >>> 3);
+					pairs &= pairs - 1;
+					if (leading == 1) {
+						if (k > last)
+							return -1;
+						if (matches(buffer, k))
+							return k;
+						continue;
+					}
+					// the boundary ends its leading run where the run ends
+					int e = k + 2;
+					while (e < end && buffer[e] == boundary[0])
+						e++;
+					int s = e - leading;
+					if (s > last)
+						return -1;
+					if (s >= start && matches(buffer, s))
+						return s;
+					// next occurrence starts behind the run
+					covered = i = e;
+					break;
+				}
+			}
+		}
+		for (int i = covered; i <= last; i++) {
+			if (buffer[i] == boundary[0] && matches(buffer, i))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return a word that has the high bit set exactly in the bytes those are
+	 *         zero in the given word
+	 */
+	private static long zeroBytes(long word) {
+		return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+	}
+
+	/**
+	 * does the whole boundary start at the offset of buffer?
+	 */
+	private boolean matches(byte[] buffer, int offset) {
+		for (int j = boundary.length - 1; j >= 0; j--) {
+			if (buffer[offset + j] != boundary[j])
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Makes the jump table based on the mismatched character information.
 	 */
@@ -118,7 +325,7 @@ public class BoundaryFinder {
 			table[i] = needle.length;
 		}
 		for (int i = 0; i < needle.length - 1; ++i) {
-			table[needle[i]] = needle.length - 1 - i;
+			table[needle[i] & 0xff] = needle.length - 1 - i;
 		}
 		return table;
 	}
@@ -0,0 +1,230 @@
+/*
+ * 
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*  http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package net.sourceforge.fastupload.util;
+
+/**
+ * A resumable matcher of the delimiter, <em>CRLF</em> followed by the
+ * boundary, refer to <a href="http://www.ietf.org/rfc/rfc2046.txt">RFC2046</a>.
+ * The matcher scans buffers read one after another from a stream, and
+ * remembers how many delimiter bytes matched at the end of the last buffer, so
+ * a delimiter that straddles two buffers is found without copying any byte.
+ * <p/>
+ * 
+ * The bytes held at the end of a buffer are always the first bytes of the
+ * delimiter. If the next buffer does not complete the delimiter, the matcher
+ * reports them as <em>released</em>, and the caller takes them from
+ * {@link #getDelimiter()} as content.
+ * <p/>
+ * 
+ * Inside a buffer the matcher searches with the {@link BoundaryFinder} it is
+ * created from, only the bytes at the buffer edges are matched one by one,
+ * with the Knuth-Morris-Pratt failure table of the delimiter.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class BoundaryMatcher {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private BoundaryFinder finder;
+
+	/**
+	 * CRLF and the boundary
+	 */
+	private byte[] delimiter;
+
+	/**
+	 * Knuth-Morris-Pratt failure table of delimiter
+	 */
+	private int[] failure;
+
+	/**
+	 * delimiter bytes matched at the end of the last buffer
+	 */
+	private int matched;
+
+	/**
+	 * bytes of the last held delimiter bytes turned out as content
+	 */
+	private int released;
+
+	/**
+	 * true if the content is binary, the finder scans it with Boyer-Moore
+	 */
+	private boolean binary;
+
+	public BoundaryMatcher(BoundaryFinder finder) {
+		super();
+		this.finder = finder;
+		byte[] boundary = finder.getBoundary();
+		delimiter = new byte[boundary.length + CRLF.length];
+		System.arraycopy(CRLF, 0, delimiter, 0, CRLF.length);
+		System.arraycopy(boundary, 0, delimiter, CRLF.length, boundary.length);
+		failure = makeFailureTable(delimiter);
+	}
+
+	/**
+	 * scan bytes of <em>buffer</em> from <em>start</em> to <em>end</em>,
+	 * continue with the delimiter bytes matched at the end of the last buffer.
+	 * After the method returns, the bytes of content are the first
+	 * {@link #getReleased()} bytes of {@link #getDelimiter()}, followed by the
+	 * bytes of buffer from <em>start</em> to
+	 * {@link #getContentEnd(int, int, int)}.
+	 * 
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 * @return the position behind the delimiter if the delimiter ends in the
+	 *         buffer, else return -1
+	 */
+	public int find(byte[] buffer, int start, int end) {
+		int held = matched;
+		int i = start;
+		released = held;
+		matched = 0;
+		if (held > 0) {
+			int j = held;
+			while (i < end) {
+				byte b = buffer[i++];
+				while (j > 0 && delimiter[j] != b)
+					j = failure[j - 1];
+				if (delimiter[j] == b)
+					j++;
+				if (j == delimiter.length) {
+					released = Math.min(held, held + i - delimiter.length - start);
+					return i;
+				}
+				if (i - j >= start)
+					break;
+			}
+			if (i - j < start) {
+				// the whole buffer is a part of delimiter still
+				matched = j;
+				released = held + end - start - j;
+				return -1;
+			}
+		}
+
+		for (int from = start + CRLF.length;;) {
+			int s = finder.indexOf(buffer, from, end, binary);
+			if (s == -1)
+				break;
+			if (buffer[s - 2] == '\r' && buffer[s - 1] == '\n')
+				return s + finder.getBoundaryLength();
+			from = s + 1;
+		}
+		matched = tailMatch(buffer, start, end);
+		return -1;
+	}
+
+	/**
+	 * @param start
+	 *            the start position of last scanned buffer
+	 * @param end
+	 *            the end position of last scanned buffer
+	 * @param found
+	 *            the value that {@link #find(byte[], int, int)} returned
+	 * @return the end position of content bytes in the last scanned buffer
+	 */
+	public int getContentEnd(int start, int end, int found) {
+		return Math.max(start, found == -1 ? end - matched : found - delimiter.length);
+	}
+
+	/**
+	 * the length of delimiter bytes found at the end of buffer, the content
+	 * ends before them
+	 */
+	private int tailMatch(byte[] buffer, int start, int end) {
+		int j = 0;
+		for (int i = Math.max(start, end - delimiter.length + 1); i < end; i++) {
+			while (j > 0 && delimiter[j] != buffer[i])
+				j = failure[j - 1];
+			if (delimiter[j] == buffer[i])
+				j++;
+		}
+		return j;
+	}
+
+	/**
+	 * Makes the length table of the longest proper prefix which is also a
+	 * suffix of every prefix of the needle.
+	 */
+	private int[] makeFailureTable(byte[] needle) {
+		int[] table = new int[needle.length];
+		for (int q = 1, k = 0; q < needle.length; q++) {
+			while (k > 0 && needle[k] != needle[q])
+				k = table[k - 1];
+			if (needle[k] == needle[q])
+				k++;
+			table[q] = k;
+		}
+		return table;
+	}
+
+	/**
+	 * forget the bytes matched, and suppose the first <em>matched</em> bytes
+	 * of delimiter were read. <code>reset(2)</code> lets the matcher find the
+	 * first boundary of a stream, which has not CRLF in front of it.
+	 * 
+	 * @param matched
+	 */
+	public void reset(int matched) {
+		this.matched = matched;
+		this.released = 0;
+	}
+
+	/**
+	 * @return the delimiter bytes matched at the end of the last buffer
+	 */
+	public int getMatched() {
+		return matched;
+	}
+
+	/**
+	 * @return the count of the first bytes of {@link #getDelimiter()} which
+	 *         are content in front of the last scanned buffer
+	 */
+	public int getReleased() {
+		return released;
+	}
+
+	/**
+	 * @return CRLF followed by the boundary
+	 */
+	public byte[] getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * tell the matcher whether the content is binary, the word scan engine of
+	 * the finder is faster on text only
+	 * 
+	 * @param binary
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
+	public int getDelimiterLength() {
+		return delimiter.length;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload.util;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, as the one of <em>java.util.zip</em> since
+ * Java 9, computed with slicing-by-8 tables.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class CRC32C implements Checksum {
+
+	/**
+	 * reversed polynomial of CRC-32C
+	 */
+	private static final int _POLYNOMIAL = 0x82F63B78;
+
+	private static final int[][] _TABLES = new int[8][256];
+
+	static {
+		for (int n = 0; n < 256; n++) {
+			int c = n;
+			for (int k = 0; k < 8; k++)
+				c = (c & 1) != 0 ? (c >>> 1) ^ _POLYNOMIAL : c >>> 1;
+			_TABLES[0][n] = c;
+		}
+		for (int n = 0; n < 256; n++) {
+			int c = _TABLES[0][n];
+			for (int t = 1; t < 8; t++) {
+				c = _TABLES[0][c & 0xff] ^ (c >>> 8);
+				_TABLES[t][n] = c;
+			}
+		}
+	}
+
+	private int crc = 0xffffffff;
+
+	public void update(int b) {
+		crc = _TABLES[0][(crc ^ b) & 0xff] ^ (crc >>> 8);
+	}
+
+	public void update(byte[] b, int off, int len) {
+		int c = crc;
+		int end = off + len;
+		// eight bytes a round
+		for (; off + 8 <= end; off += 8) {
+			int lo = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24);
+			c = _TABLES[7][lo & 0xff] ^ _TABLES[6][(lo >>> 8) & 0xff] ^ _TABLES[5][(lo >>> 16) & 0xff] ^ _TABLES[4][lo >>> 24]
+					^ _TABLES[3][b[off + 4] & 0xff] ^ _TABLES[2][b[off + 5] & 0xff] ^ _TABLES[1][b[off + 6] & 0xff]
+					^ _TABLES[0][b[off + 7] & 0xff];
+		}
+		for (; off < end; off++)
+			c = _TABLES[0][(c ^ b[off]) & 0xff] ^ (c >>> 8);
+		crc = c;
+	}
+
+	public long getValue() {
+		return (~crc) & 0xffffffffL;
+	}
+
+	public void reset() {
+		crc = 0xffffffff;
+	}
+}
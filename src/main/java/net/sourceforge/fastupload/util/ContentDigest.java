@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * A digest of the content of a part, updated while the bytes are appended.
+ * The algorithm is a {@link MessageDigest} algorithm, <em>SHA-256</em> or
+ * <em>MD5</em> for example, or a checksum, <em>CRC32</em> or <em>CRC32C</em>
+ * whose value is 4 bytes in big-endian.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public abstract class ContentDigest {
+
+	private String algorithm;
+
+	private byte[] value;
+
+	protected ContentDigest(String algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * @param algorithm
+	 * @return a new digest
+	 * @throws IllegalArgumentException
+	 *             if the algorithm is not available
+	 */
+	public static ContentDigest getInstance(String algorithm) {
+		if (algorithm.equalsIgnoreCase("CRC32"))
+			return new ChecksumDigest("CRC32", new CRC32());
+		if (algorithm.equalsIgnoreCase("CRC32C"))
+			return new ChecksumDigest("CRC32C", new CRC32C());
+		try {
+			return new MessageContentDigest(algorithm, MessageDigest.getInstance(algorithm));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("unknown digest algorithm: " + algorithm, e);
+		}
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	public abstract void update(byte[] buff, int off, int len);
+
+	/**
+	 * complete the digest at the first call, no byte may be updated after
+	 * 
+	 * @return the digest value
+	 */
+	public byte[] getValue() {
+		if (value == null)
+			value = complete();
+		return value.clone();
+	}
+
+	protected abstract byte[] complete();
+
+	private static class MessageContentDigest extends ContentDigest {
+
+		private MessageDigest digest;
+
+		MessageContentDigest(String algorithm, MessageDigest digest) {
+			super(algorithm);
+			this.digest = digest;
+		}
+
+		@Override
+		public void update(byte[] buff, int off, int len) {
+			digest.update(buff, off, len);
+		}
+
+		@Override
+		protected byte[] complete() {
+			return digest.digest();
+		}
+	}
+
+	private static class ChecksumDigest extends ContentDigest {
+
+		private Checksum checksum;
+
+		ChecksumDigest(String algorithm, Checksum checksum) {
+			super(algorithm);
+			this.checksum = checksum;
+		}
+
+		@Override
+		public void update(byte[] buff, int off, int len) {
+			checksum.update(buff, off, len);
+		}
+
+		@Override
+		protected byte[] complete() {
+			long v = checksum.getValue();
+			return new byte[] { (byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v };
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * 
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*  http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package net.sourceforge.fastupload.util;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A byte level tokenizer of the content header lines of a part, for example,
+ * 
+ * <pre>
+ * Content-Disposition: form-data; name="pics"; filename="file1.txt"
+ * Content-Type: text/plain
+ * </pre>
+ * 
+ * The tokenizer works on the buffer directly, it only records the positions of
+ * header names, values, parameter names and parameter values. A value is
+ * decoded to <code>String</code> when the caller asks for it, so the caller
+ * skips the headers and parameters it does not need without allocation. A
+ * quoted value may contain <em>\"</em> and <em>\\</em> escapes, other
+ * backslashes are kept as they are, as the full path of file name sent by some
+ * earlier IE browser.
+ * 
+ * <pre>
+ * tokenizer.reset(buffer, start, end);
+ * while (tokenizer.nextHeader()) {
+ * 	if (tokenizer.nameIs(&quot;content-disposition&quot;)) {
+ * 		while (tokenizer.nextParameter()) {
+ * 			if (tokenizer.nameIs(&quot;name&quot;))
+ * 				name = tokenizer.value(&quot;UTF-8&quot;);
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class HeaderTokenizer {
+
+	private byte[] buffer;
+
+	/**
+	 * position of the next header line
+	 */
+	private int pos;
+
+	private int end;
+
+	/**
+	 * end position of current header line, excludes CRLF
+	 */
+	private int lineEnd;
+
+	/**
+	 * position of the next parameter in current header line
+	 */
+	private int cursor;
+
+	private int nameStart;
+
+	private int nameEnd;
+
+	private int valueStart;
+
+	private int valueEnd;
+
+	/**
+	 * current value is quoted and contains escapes
+	 */
+	private boolean escaped;
+
+	/**
+	 * buffer to unescape quoted value, reused
+	 */
+	private byte[] scratch;
+
+	/**
+	 * tokenize header lines of buffer from <em>start</em> to <em>end</em>
+	 * 
+	 * @param buffer
+	 * @param start
+	 * @param end
+	 */
+	public void reset(byte[] buffer, int start, int end) {
+		this.buffer = buffer;
+		this.pos = start;
+		this.end = end;
+		this.lineEnd = this.cursor = start;
+		this.nameStart = this.nameEnd = this.valueStart = this.valueEnd = start;
+		this.escaped = false;
+	}
+
+	/**
+	 * move to the next header line, the current name is the header name, the
+	 * current value is the header value in front of the first parameter.
+	 * 
+	 * @return false if no more header line
+	 */
+	public boolean nextHeader() {
+		while (pos < end) {
+			int s = pos, e = s;
+			while (e < end && buffer[e] != '\n')
+				e++;
+			pos = e + 1;
+			if (e > s && buffer[e - 1] == '\r')
+				e--;
+
+			int colon = s;
+			while (colon < e && buffer[colon] != ':')
+				colon++;
+			if (colon == e)
+				continue; // not a header line
+			nameStart = skipSpace(s, colon);
+			nameEnd = trimSpace(nameStart, colon);
+			lineEnd = e;
+			cursor = token(colon + 1);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * move to the next parameter of current header line, the current name is
+	 * the parameter name, and the current value is the parameter value.
+	 * 
+	 * @return false if no more parameter in current header line
+	 */
+	public boolean nextParameter() {
+		while (cursor < lineEnd) {
+			int s = skipSpace(cursor + 1, lineEnd); // skip ';'
+			int e = s;
+			while (e < lineEnd && buffer[e] != '=' && buffer[e] != ';')
+				e++;
+			nameStart = s;
+			nameEnd = trimSpace(s, e);
+			if (e < lineEnd && buffer[e] == '=') {
+				cursor = token(e + 1);
+			} else {
+				valueStart = valueEnd = e;
+				escaped = false;
+				cursor = e;
+			}
+			if (nameEnd > nameStart)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * read a token or quoted string from <em>p</em> as current value
+	 * 
+	 * @return the position of next ';' or end of line
+	 */
+	private int token(int p) {
+		p = skipSpace(p, lineEnd);
+		escaped = false;
+		if (p < lineEnd && buffer[p] == '"') {
+			valueStart = ++p;
+			while (p < lineEnd && buffer[p] != '"') {
+				if (buffer[p] == '\\' && p + 1 < lineEnd && (buffer[p + 1] == '"' || buffer[p + 1] == '\\')) {
+					escaped = true;
+					p++;
+				}
+				p++;
+			}
+			valueEnd = p;
+			while (p < lineEnd && buffer[p] != ';')
+				p++;
+		} else {
+			valueStart = p;
+			while (p < lineEnd && buffer[p] != ';')
+				p++;
+			valueEnd = trimSpace(valueStart, p);
+		}
+		return p;
+	}
+
+	private int skipSpace(int p, int limit) {
+		while (p < limit && (buffer[p] == ' ' || buffer[p] == '\t'))
+			p++;
+		return p;
+	}
+
+	private int trimSpace(int start, int p) {
+		while (p > start && (buffer[p - 1] == ' ' || buffer[p - 1] == '\t'))
+			p--;
+		return p;
+	}
+
+	/**
+	 * compare current name with an ASCII name ignoring case, without
+	 * decoding it
+	 * 
+	 * @param name
+	 *            lower case name
+	 * @return
+	 */
+	public boolean nameIs(String name) {
+		if (nameEnd - nameStart != name.length())
+			return false;
+		for (int i = nameStart, j = 0; i < nameEnd; i++, j++) {
+			int b = buffer[i];
+			if (b >= 'A' && b <= 'Z')
+				b += 'a' - 'A';
+			if (b != name.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * compare current value with an ASCII value ignoring case
+	 * 
+	 * @param value
+	 *            lower case value
+	 * @return
+	 */
+	public boolean valueIs(String value) {
+		if (escaped || valueEnd - valueStart != value.length())
+			return false;
+		for (int i = valueStart, j = 0; i < valueEnd; i++, j++) {
+			int b = buffer[i];
+			if (b >= 'A' && b <= 'Z')
+				b += 'a' - 'A';
+			if (b != value.charAt(j))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the current name as ISO-8859-1 string
+	 */
+	public String name() {
+		return decode(buffer, nameStart, nameEnd - nameStart, "ISO-8859-1");
+	}
+
+	/**
+	 * decode current value with the charset, and unescape it if it's quoted
+	 * 
+	 * @param charset
+	 * @return
+	 */
+	public String value(String charset) {
+		if (!escaped)
+			return decode(buffer, valueStart, valueEnd - valueStart, charset);
+
+		if (scratch == null || scratch.length < valueEnd - valueStart)
+			scratch = new byte[valueEnd - valueStart];
+		int len = 0;
+		for (int i = valueStart; i < valueEnd; i++) {
+			if (buffer[i] == '\\' && i + 1 < valueEnd && (buffer[i + 1] == '"' || buffer[i + 1] == '\\'))
+				i++;
+			scratch[len++] = buffer[i];
+		}
+		return decode(scratch, 0, len, charset);
+	}
+
+	private String decode(byte[] bytes, int offset, int length, String charset) {
+		if (charset == null)
+			return new String(bytes, offset, length);
+		try {
+			return new String(bytes, offset, length, charset);
+		} catch (UnsupportedEncodingException e) {
+			return new String(bytes, offset, length);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Signatures of the leading bytes of well known formats, to tell the format
+ * of content from its first bytes.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public final class MagicBytes {
+
+	/**
+	 * length of the leading bytes that the signatures need at most
+	 */
+	public static final int SNIFF_LENGTH = 16;
+
+	/**
+	 * the leading bytes of a format at an offset, the bytes are compared
+	 * exactly
+	 */
+	private static class Signature {
+		final int offset;
+		final byte[] bytes;
+		final String contentType;
+		final boolean compressed;
+
+		Signature(int offset, String hex, String contentType, boolean compressed) {
+			this.offset = offset;
+			this.bytes = new byte[hex.length() >> 1];
+			for (int i = 0; i < bytes.length; i++)
+				bytes[i] = (byte) Integer.parseInt(hex.substring(i << 1, (i << 1) + 2), 16);
+			this.contentType = contentType;
+			this.compressed = compressed;
+		}
+
+		boolean matches(byte[] b, int off, int len) {
+			if (len < offset + bytes.length)
+				return false;
+			for (int i = 0; i < bytes.length; i++) {
+				if (b[off + offset + i] != bytes[i])
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private static final Signature[] _SIGNATURES = {
+			new Signature(0, "FFD8FF", "image/jpeg", true),
+			new Signature(0, "FFD8FF", "image/jpg", true),
+			new Signature(0, "FFD8FF", "image/pjpeg", true),
+			new Signature(0, "89504E470D0A1A0A", "image/png", true),
+			new Signature(0, "474946383761", "image/gif", true),
+			new Signature(0, "474946383961", "image/gif", true),
+			new Signature(8, "57454250", "image/webp", true),
+			new Signature(0, "504B0304", "application/zip", true),
+			new Signature(0, "504B0506", "application/zip", true),
+			new Signature(0, "1F8B", "application/gzip", true),
+			new Signature(0, "425A68", "application/x-bzip2", true),
+			new Signature(0, "FD377A585A00", "application/x-xz", true),
+			new Signature(0, "377ABCAF271C", "application/x-7z-compressed", true),
+			new Signature(0, "526172211A07", "application/x-rar-compressed", true),
+			new Signature(0, "28B52FFD", "application/zstd", true),
+			new Signature(4, "66747970", "video/mp4", true),
+			new Signature(0, "1A45DFA3", "video/webm", true),
+			new Signature(0, "4F676753", "audio/ogg", true),
+			new Signature(0, "494433", "audio/mpeg", true),
+			new Signature(0, "664C6143", "audio/flac", true),
+			new Signature(0, "25504446", "application/pdf", false),
+			new Signature(0, "424D", "image/bmp", false),
+			new Signature(0, "49492A00", "image/tiff", false),
+			new Signature(0, "4D4D002A", "image/tiff", false),
+			new Signature(0, "4D5A", "application/x-msdownload", false),
+			new Signature(0, "7F454C46", "application/x-executable", false) };
+
+	/**
+	 * content types of compressed formats but the ones of the
+	 * <em>image/</em>, <em>audio/</em> and <em>video/</em> prefixes
+	 */
+	private static final Set<String> _COMPRESSED_TYPES = new HashSet<String>(Arrays.asList("application/zip", "application/gzip",
+			"application/x-gzip", "application/x-bzip2", "application/x-xz", "application/x-7z-compressed",
+			"application/x-rar-compressed", "application/vnd.rar", "application/zstd", "application/java-archive",
+			"application/x-compress", "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+			"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+			"application/vnd.openxmlformats-officedocument.presentationml.presentation"));
+
+	/**
+	 * image types that are not compressed
+	 */
+	private static final Set<String> _RAW_IMAGE_TYPES = new HashSet<String>(Arrays.asList("image/bmp", "image/x-ms-bmp", "image/tiff",
+			"image/svg+xml", "image/x-icon", "image/vnd.microsoft.icon"));
+
+	private MagicBytes() {
+	}
+
+	/**
+	 * @param contentType
+	 *            content type of a part, parameters are ignored
+	 * @return true if the content type is of a compressed format
+	 */
+	public static boolean isCompressedType(String contentType) {
+		if (contentType == null)
+			return false;
+		int i = contentType.indexOf(';');
+		String type = (i == -1 ? contentType : contentType.substring(0, i)).trim().toLowerCase();
+		if (type.startsWith("audio/") || type.startsWith("video/"))
+			return !type.equals("audio/wav") && !type.equals("audio/x-wav");
+		if (type.startsWith("image/"))
+			return !_RAW_IMAGE_TYPES.contains(type);
+		return _COMPRESSED_TYPES.contains(type);
+	}
+
+	/**
+	 * @return the content type that the leading bytes match, or null if
+	 *         unknown
+	 */
+	public static String sniff(byte[] b, int off, int len) {
+		Signature signature = find(b, off, len);
+		return signature == null ? null : signature.contentType;
+	}
+
+	/**
+	 * @return true if the leading bytes are of a compressed format, whose
+	 *         content does not deflate any more
+	 */
+	public static boolean isCompressed(byte[] b, int off, int len) {
+		Signature signature = find(b, off, len);
+		return signature != null && signature.compressed;
+	}
+
+	/**
+	 * @return true if the content type has a signature, so the leading bytes
+	 *         of its content tell it
+	 */
+	public static boolean hasSignature(String contentType) {
+		for (Signature e : _SIGNATURES) {
+			if (e.contentType.equalsIgnoreCase(contentType))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the leading bytes match a signature of the content type
+	 */
+	public static boolean matches(String contentType, byte[] b, int off, int len) {
+		for (Signature e : _SIGNATURES) {
+			if (e.contentType.equalsIgnoreCase(contentType) && e.matches(b, off, len))
+				return true;
+		}
+		return false;
+	}
+
+	private static Signature find(byte[] b, int off, int len) {
+		for (Signature e : _SIGNATURES) {
+			if (e.matches(b, off, len))
+				return e;
+		}
+		return null;
+	}
+}
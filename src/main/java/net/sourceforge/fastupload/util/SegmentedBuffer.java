@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+
+/**
+ * A growable buffer of a list of slabs, the bytes of an input stream are read
+ * into the slabs directly till the stream ends. The first slab is sized by
+ * the expected length, a content length header for example, and each next
+ * slab doubles the size till <em>maxSlabSize</em>. So a wrong or unknown
+ * expected length costs one more slab at most, no large array is allocated
+ * and no byte is copied.
+ * 
+ * @see BoundaryMatcher
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class SegmentedBuffer {
+
+	/**
+	 * size of the first slab if the expected length is unknown
+	 */
+	private static final int _MIN_SLAB_SIZE = 0x2000;
+
+	private static final int _MAX_SLAB_SIZE = 0x100000;
+
+	private int maxSlabSize;
+
+	private List<byte[]> slabs = new ArrayList<byte[]>();
+
+	/**
+	 * bytes in the last slab
+	 */
+	private int last;
+
+	private long length;
+
+	public SegmentedBuffer() {
+		this(_MAX_SLAB_SIZE);
+	}
+
+	public SegmentedBuffer(int maxSlabSize) {
+		super();
+		this.maxSlabSize = maxSlabSize;
+	}
+
+	/**
+	 * read all bytes of the input stream into the slabs
+	 * 
+	 * @param in
+	 * @param expectedLength
+	 *            size of the first slab, less than 1 if unknown
+	 * @param maxLength
+	 *            throw {@link ThresholdException} if the stream exceeds it, 0
+	 *            if no limitation
+	 * @return length of bytes read
+	 * @throws IOException
+	 */
+	public long readFrom(InputStream in, long expectedLength, long maxLength) throws IOException {
+		int size = expectedLength > 0 ? (int) Math.min(expectedLength, maxSlabSize) : Math.min(_MIN_SLAB_SIZE, maxSlabSize);
+		byte[] slab = slabs.isEmpty() ? addSlab(size) : slabs.get(slabs.size() - 1);
+		for (;;) {
+			int c;
+			if (last == slab.length) {
+				// probe one byte before allocating the next slab, an exact
+				// expected length costs no more slab
+				if ((c = in.read()) == -1)
+					break;
+				slab = addSlab((int) Math.min((long) slab.length << 1, maxSlabSize));
+				slab[last++] = (byte) c;
+				c = 1;
+			} else if ((c = in.read(slab, last, slab.length - last)) == -1) {
+				break;
+			} else {
+				last += c;
+			}
+			length += c;
+			if (maxLength > 0 && length > maxLength)
+				throw ThresholdException.parseThresholdException();
+		}
+		return length;
+	}
+
+	/**
+	 * called before a slab is allocated, override it to charge the slab to a
+	 * budget
+	 * 
+	 * @param size
+	 *            bytes of the slab
+	 * @throws IOException
+	 */
+	protected void allocating(int size) throws IOException {
+	}
+
+	private byte[] addSlab(int size) throws IOException {
+		allocating(size);
+		byte[] slab = new byte[size];
+		slabs.add(slab);
+		last = 0;
+		return slab;
+	}
+
+	public int getSlabCount() {
+		return slabs.size();
+	}
+
+	public byte[] getSlab(int i) {
+		return slabs.get(i);
+	}
+
+	/**
+	 * @return length of bytes in the slab, all slabs are full but the last
+	 */
+	public int getSlabLength(int i) {
+		return i == slabs.size() - 1 ? last : slabs.get(i).length;
+	}
+
+	public long getLength() {
+		return length;
+	}
+}
@@ -86,6 +86,25 @@ public class UploadChunk {
 	 * skip bytes when search next boundary
 	 */
 	private int PRE_SKIP = 40;
+
+	/**
+	 * minimal count of the same leading bytes of a boundary, as the
+	 * <em>--</em> prefix, that the word scan engine of {@link BoundaryFinder}
+	 * beats the Boyer-Moore engine with on text content. Binary content is
+	 * scanned with Boyer-Moore.
+	 */
+	private static final int WORD_SCAN_LEADING = 16;
+
+	private static final String _DISPOSITION_KEY = "Content-Disposition";
+	private static final String _NAME_KEY = "name";
+	private static final String _FILE_NAME_KEY = "filename";
+	private static final String _CONTENT_TYPE_KEY = "Content-Type";
+	private static final String _BOUNDARY_KEY = "boundary";
+
+	/**
+	 * tokenizer of content header lines, reused for every part
+	 */
+	private HeaderTokenizer tokenizer = new HeaderTokenizer();
 	
 	public UploadChunk(BoundaryFinder boundayFinder) {
 		super();
@@ -126,20 +145,40 @@ public class UploadChunk {
 	}
 
 	public UploadChunk(byte[] buffer, byte[] boundary, int pos, String encoding) {
-		this.boundayFinder = new BoundaryFinder(boundary);
+		this.boundayFinder = createFinder(boundary);
 		this.buffer = buffer;
 		this.pos = pos;
 		this.encoding = encoding;
 	}
 
 	public UploadChunk(byte[] buffer, byte[] boundary, int pos, int length, String encoding) {
-		this.boundayFinder = new BoundaryFinder(boundary);
+		this.boundayFinder = createFinder(boundary);
 		this.buffer = buffer;
 		this.pos = pos;
 		this.length = length;
 		this.encoding = encoding;
 	}
 
+	/**
+	 * create a {@link BoundaryFinder} object with the scanning engine that
+	 * suits the boundary. The word scan engine skips the longer the boundary
+	 * leading run is, e.g. <em>-----------------------------1437360015666</em>
+	 * , while Boyer-Moore engine is faster for the short leading run, e.g.
+	 * <em>------WebKitFormBoundary7MA4YWxkTrZu0gW</em>. The word scan is used
+	 * for text content only, see
+	 * {@link BoundaryFinder#indexOf(byte[], int, int, boolean)}
+	 * 
+	 * @param boundary
+	 * @return
+	 */
+	public static BoundaryFinder createFinder(byte[] boundary) {
+		int leading = 0;
+		while (leading < boundary.length && boundary[leading] == boundary[0])
+			leading++;
+		return new BoundaryFinder(boundary, leading >= WORD_SCAN_LEADING ? BoundaryFinder.Engine.WORD_SCAN
+				: BoundaryFinder.Engine.BOYER_MOORE);
+	}
+
 	/**
 	 * convenience method append whole bytes of buffer to current buffer
 	 * @param buff
@@ -296,19 +335,15 @@ public class UploadChunk {
 			return p;
 		if (p - s < PRE_SKIP)
 			return -1;
-		HashMap<String, String> disposition = parseLine(substitute(buffer, s, p, encoding));
-
 		contentHeaderMap = new ContentHeaderMap();
-		contentHeaderMap.putAll(disposition);
+		putHeaders(buffer, s, p);
 
 		if (contentHeaderMap.isFile()) {
 			s = p;
 			p = readLine(s + 2);
 			if (p == -1)
 				return p;
-			HashMap<String, String> type = this.parseLine(this.substitute(buffer, s, p));
-
-			contentHeaderMap.putAll(type);
+			putHeaders(buffer, s, p);
 
 			// TODO: perhaps, need to parse the content type to determine
 			// whether
@@ -320,34 +355,46 @@ public class UploadChunk {
 	}
 
 	/**
-	 * substitute <em>len</em> bytes from <em>start</em> and convert <code>String</code> with the charset specfied
+	 * parse the content header lines of a part between <em>start</em> and
+	 * <em>end</em> of <em>buffer</em>, which end with CRLF, and put the
+	 * sections into a new {@link ContentHeaderMap} object.
+	 * 
 	 * @param buffer
 	 * @param start
 	 * @param end
-	 * @param charset
-	 * @return
+	 * @return the contentHeaderMap
 	 */
-	private String substitute(byte[] buffer, int start, int end, String charset) {
-		try {
-			return new String(buffer, start, end - start, charset);
-		} catch (UnsupportedEncodingException e) {
-			return new String(buffer, start, end - start);
-		}
+	public ContentHeaderMap parseContentHeader(byte[] buffer, int start, int end) {
+		contentHeaderMap = new ContentHeaderMap();
+		putHeaders(buffer, start, end);
+		return contentHeaderMap;
 	}
-	
+
 	/**
-	 * substitute <em>len</em> bytes from <em>start</em> and convert <code>String</code> with the default charset
-	 * @param buffer
-	 * @param start
-	 * @param end
-	 * @param encoding
-	 * @return
+	 * tokenize header lines in the buffer, decode and put the header values
+	 * and parameters that {@link ContentHeaderMap} needs only, skip others.
 	 */
-	private String substitute(byte[] buffer, int start, int end) {
-		return new String(buffer, start, end - start);
+	private void putHeaders(byte[] buffer, int start, int end) {
+		tokenizer.reset(buffer, start, end);
+		while (tokenizer.nextHeader()) {
+			if (tokenizer.nameIs("content-disposition")) {
+				contentHeaderMap.put(_DISPOSITION_KEY, tokenizer.value(encoding));
+				while (tokenizer.nextParameter()) {
+					if (tokenizer.nameIs(_NAME_KEY))
+						contentHeaderMap.put(_NAME_KEY, tokenizer.value(encoding));
+					else if (tokenizer.nameIs(_FILE_NAME_KEY))
+						contentHeaderMap.put(_FILE_NAME_KEY, tokenizer.value(encoding));
+				}
+			} else if (tokenizer.nameIs("content-type")) {
+				contentHeaderMap.put(_CONTENT_TYPE_KEY, tokenizer.value(encoding));
+				while (tokenizer.nextParameter()) {
+					if (tokenizer.nameIs(_BOUNDARY_KEY))
+						contentHeaderMap.put(_BOUNDARY_KEY, tokenizer.value(encoding));
+				}
+			}
+		}
 	}
 
-
 	/**
 	 * read the current buffer from <em>pos</em>,
 	 * 
@@ -370,20 +417,33 @@ public class UploadChunk {
 	 * @param subBoundary
 	 */
 	public void setSubBoundary(byte[] subBoundary) {
-		this.subBoundayFinder = new BoundaryFinder(subBoundary);
+		this.subBoundayFinder = createFinder(subBoundary);
 	}
 
 	public byte[] getBuffer() {
 		return buffer;
 	}
 
+	/**
+	 * parse a header line, put the header value and every parameter into a
+	 * map
+	 * 
+	 * @param line
+	 * @return
+	 */
 	public HashMap<String, String> parseLine(String line) {
 		HashMap<String, String> hashMap = new HashMap<String, String>();
-		String[] sections = line.split(";\\s");
-		for (String sec : sections) {
-			String[] vals = sec.split(":\\s|(=\")");
-			if (vals.length > 1)
-				hashMap.put(vals[0].trim(), vals[1].trim().replaceAll("\"", ""));
+		byte[] bytes;
+		try {
+			bytes = line.getBytes(encoding);
+		} catch (UnsupportedEncodingException e) {
+			bytes = line.getBytes();
+		}
+		tokenizer.reset(bytes, 0, bytes.length);
+		while (tokenizer.nextHeader()) {
+			hashMap.put(tokenizer.name(), tokenizer.value(encoding));
+			while (tokenizer.nextParameter())
+				hashMap.put(tokenizer.name(), tokenizer.value(encoding));
 		}
 		return hashMap;
 	}
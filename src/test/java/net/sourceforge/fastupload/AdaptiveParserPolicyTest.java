@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import net.sourceforge.fastupload.mock.SimpleHttpServletRequestMock;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class AdaptiveParserPolicyTest {
+
+	private static final String BOUNDARY = "---------------------------1437360015666227002297487156";
+
+	private static final String BODY = "--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"text1\"\r\n\r\n" + "11111\r\n"
+			+ "--" + BOUNDARY + "--\r\n";
+
+	private FastUploadParser parse(FileFactory fileFactory, ParseMode hint) throws IOException {
+		return new FastUploadParser(new SimpleHttpServletRequestMock(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1"))),
+				fileFactory.getConfig(), hint);
+	}
+
+	@Test
+	public void testSelect() {
+		FileFactory fileFactory = FileFactory.getInstance();
+		fileFactory.setRepository(System.getProperty("java.io.tmpdir"));
+		UploadConfig config = fileFactory.getConfig();
+		AdaptiveParserPolicy policy = new AdaptiveParserPolicy(1000, 100000);
+		assertEquals(ParseMode.MEMORY, policy.select(config, 500, null));
+		assertEquals(ParseMode.STREAM, policy.select(config, 100000, null));
+		assertEquals(ParseMode.STREAM, policy.select(config, -1, null));
+		assertEquals(ParseMode.STREAM, policy.select(config, 500, ParseMode.STREAM));
+		assertEquals(ParseMode.MEMORY, policy.select(config, 5000, null));
+		assertEquals(1, policy.getAdaptedCount());
+
+		// the budget has no room
+		fileFactory.setMemoryBudget(new MemoryBudget(4000, MemoryBudget.Policy.FALLBACK));
+		assertEquals(ParseMode.STREAM, policy.select(fileFactory.getConfig(), 5000, null));
+		assertEquals(2, policy.getMemoryCount());
+		assertEquals(4, policy.getStreamCount());
+
+		// always in memory without repository
+		assertEquals(ParseMode.MEMORY, policy.select(FileFactory.getInstance().getConfig(), 1000000, null));
+	}
+
+	@Test
+	public void testParseMode() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setRepository(System.getProperty("java.io.tmpdir"));
+		assertEquals(ParseMode.STREAM, parse(fileFactory, null).getParseMode());
+
+		fileFactory.setParserPolicy(new AdaptiveParserPolicy());
+		FastUploadParser parser = parse(fileFactory, null);
+		assertEquals(ParseMode.MEMORY, parser.getParseMode());
+		assertEquals("11111", parser.parseList().get(0).getString());
+		assertEquals(ParseMode.STREAM, parse(fileFactory, ParseMode.STREAM).getParseMode());
+
+		// the budget is exhausted, fall back to the repository
+		fileFactory.setMemoryBudget(new MemoryBudget(10, MemoryBudget.Policy.FALLBACK));
+		fileFactory.setParserPolicy(new AdaptiveParserPolicy(0x10000, 0x1000000));
+		parser = parse(fileFactory, null);
+		assertEquals(ParseMode.STREAM, parser.getParseMode());
+		assertEquals("11111", parser.parseList().get(0).getString());
+	}
+}
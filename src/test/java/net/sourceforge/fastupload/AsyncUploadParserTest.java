@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.mock.SimpleAsyncContextMock;
+import net.sourceforge.fastupload.mock.SimpleHttpServletRequestMock;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class AsyncUploadParserTest {
+
+	private static final String BOUNDARY = "---------------------------1437360015666227002297487156";
+
+	private static final String BODY = "--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"text1\"\r\n\r\n" + "11111\r\n"
+			+ "--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"file1\"; filename=\"a.txt\"\r\n"
+			+ "Content-Type: text/plain\r\n\r\n" + "line 1\r\nline 2\r\n" + "--" + BOUNDARY + "--\r\n";
+
+	@Test
+	public void testParseAsync() throws IOException {
+		// a slow client, every read returns a few bytes
+		InputStream in = new FilterInputStream(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1"))) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+		SimpleHttpServletRequestMock request = new SimpleHttpServletRequestMock(in);
+		final AsyncContext asyncContext = request.startAsync();
+		final Object[] result = new Object[2];
+
+		FastUploadParser parser = FastUploadParser.parseAsync(asyncContext, FileFactory.getInstance("ISO-8859-1"), new UploadCallback() {
+			public void completed(List<MultiPart> parts) {
+				result[0] = parts;
+				asyncContext.complete();
+			}
+
+			public void failed(Throwable t) {
+				result[1] = t;
+				asyncContext.complete();
+			}
+		});
+
+		assertTrue(((SimpleAsyncContextMock) asyncContext).isCompleted());
+		assertNull(result[1]);
+		@SuppressWarnings("unchecked")
+		List<MultiPart> parts = (List<MultiPart>) result[0];
+		assertEquals(2, parts.size());
+		assertEquals("text1", parts.get(0).getFieldName());
+		assertEquals("11111", parts.get(0).getString());
+		assertEquals("a.txt", parts.get(1).getFileName());
+		assertEquals("line 1\r\nline 2", new String(parts.get(1).getContentBuffer(), "ISO-8859-1"));
+		assertEquals(BODY.length(), parser.getReadBytes());
+		assertEquals(parts, parser.parseList());
+	}
+
+	/**
+	 * a callback records the result
+	 */
+	private static class Result implements UploadCallback {
+
+		private List<MultiPart> parts;
+
+		private Throwable failure;
+
+		public void completed(List<MultiPart> parts) {
+			this.parts = parts;
+		}
+
+		public void failed(Throwable t) {
+			this.failure = t;
+		}
+	}
+
+	@Test
+	public void testMemoryBudget() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		MemoryBudget budget = new MemoryBudget(BODY.length(), MemoryBudget.Policy.REJECT);
+		fileFactory.setMemoryBudget(budget);
+		Result result = new Result();
+		FastUploadParser parser = FastUploadParser.parseAsync(
+				new SimpleHttpServletRequestMock(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1"))).startAsync(), fileFactory, result);
+		assertEquals(2, result.parts.size());
+		assertEquals(BODY.length(), budget.getReserved());
+		try {
+			FastUploadParser.parseAsync(new SimpleHttpServletRequestMock(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1"))).startAsync(),
+					fileFactory, new Result());
+			fail();
+		} catch (ThresholdException e) {
+		}
+		parser.close();
+		assertEquals(0, budget.getReserved());
+	}
+
+	@Test
+	public void testFailed() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		MemoryBudget budget = new MemoryBudget(BODY.length(), MemoryBudget.Policy.REJECT);
+		fileFactory.setMemoryBudget(budget);
+		fileFactory.setThreshold(3);
+		Result result = new Result();
+		FastUploadParser.parseAsync(new SimpleHttpServletRequestMock(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1"))).startAsync(),
+				fileFactory, result);
+		assertTrue(result.failure instanceof ThresholdException);
+		assertNull(result.parts);
+		// the budget is released on failure
+		assertEquals(0, budget.getReserved());
+	}
+
+	@Test
+	public void testNoDataAfterFailure() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setThreshold(3);
+		InputStream in = new FilterInputStream(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1"))) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+		SimpleHttpServletRequestMock request = new SimpleHttpServletRequestMock(in);
+		Result result = new Result();
+		AsyncUploadParser parser = new AsyncUploadParser(request.getInputStream(), fileFactory, ("--" + BOUNDARY).getBytes(), result);
+		parser.start();
+		assertTrue(parser.isDone());
+		assertTrue(result.failure instanceof ThresholdException);
+		int readBytes = parser.getReadBytes();
+		assertTrue(readBytes < BODY.length());
+		// the container notifies again, nothing is read
+		parser.onDataAvailable();
+		assertEquals(readBytes, parser.getReadBytes());
+		assertNull(result.parts);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import net.sourceforge.fastupload.util.BoundaryFinder;
+import net.sourceforge.fastupload.util.BoundaryFinder.Engine;
+import net.sourceforge.fastupload.util.BoundaryMatcher;
+import net.sourceforge.fastupload.util.UploadChunk;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class BoundaryFinderTest {
+
+	private static final String[] BOUNDARIES = { "-----------------------------1437360015666227002297487156",
+			"------WebKitFormBoundary7MA4YWxkTrZu0gW", "--ab", "a-b-" };
+
+	@Test
+	public void testEnginesAgree() {
+		Random random = new Random(1867);
+		for (String b : BOUNDARIES) {
+			byte[] boundary = b.getBytes();
+			BoundaryFinder bm = new BoundaryFinder(boundary, Engine.BOYER_MOORE);
+			BoundaryFinder ws = new BoundaryFinder(boundary, Engine.WORD_SCAN);
+			assertEquals(Engine.WORD_SCAN, ws.getEngine());
+			for (int n = 0; n < 2000; n++) {
+				byte[] buffer = randomBuffer(random, boundary);
+				int start = random.nextInt(buffer.length);
+				int end = start + random.nextInt(buffer.length - start + 1);
+				assertEquals(bm.indexOf(buffer, start, end), ws.indexOf(buffer, start, end));
+			}
+		}
+	}
+
+	@Test
+	public void testWordScanFallback() {
+		assertEquals(Engine.BOYER_MOORE, new BoundaryFinder("--".getBytes(), Engine.WORD_SCAN).getEngine());
+		assertEquals(Engine.BOYER_MOORE, new BoundaryFinder("------".getBytes(), Engine.WORD_SCAN).getEngine());
+	}
+
+	@Test
+	public void testCreateFinder() {
+		assertEquals(Engine.WORD_SCAN, UploadChunk.createFinder(BOUNDARIES[0].getBytes()).getEngine());
+		assertEquals(Engine.BOYER_MOORE, UploadChunk.createFinder(BOUNDARIES[1].getBytes()).getEngine());
+	}
+
+	@Test
+	public void testMatcherAcrossBuffers() {
+		Random random = new Random(2046);
+		for (String b : BOUNDARIES) {
+			byte[] boundary = b.getBytes();
+			for (int n = 0; n < 500; n++) {
+				byte[] content = randomBuffer(random, boundary);
+				byte[] stream = new byte[content.length + boundary.length + 2];
+				System.arraycopy(content, 0, stream, 0, content.length);
+				stream[content.length] = '\r';
+				stream[content.length + 1] = '\n';
+				System.arraycopy(boundary, 0, stream, content.length + 2, boundary.length);
+
+				BoundaryMatcher matcher = UploadChunk.createFinder(boundary).matcher();
+				matcher.setBinary(n % 2 == 0);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int found = -1, start = 0;
+				while (found == -1 && start < stream.length) {
+					int end = Math.min(stream.length, start + 1 + random.nextInt(boundary.length + 4));
+					found = matcher.find(stream, start, end);
+					out.write(matcher.getDelimiter(), 0, matcher.getReleased());
+					int e = matcher.getContentEnd(start, end, found);
+					out.write(stream, start, e - start);
+					start = end;
+				}
+				if (found == stream.length) {
+					assertArrayEquals(content, out.toByteArray());
+				} else {
+					// the content holds the delimiter in front
+					assertTrue(found != -1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * random bytes mixed with dashes, partial and whole boundaries
+	 */
+	private byte[] randomBuffer(Random random, byte[] boundary) {
+		byte[] buffer = new byte[1 + random.nextInt(300)];
+		for (int i = 0; i < buffer.length;) {
+			int kind = random.nextInt(10);
+			if (kind == 0) {
+				int len = Math.min(buffer.length - i, random.nextInt(boundary.length + 1));
+				System.arraycopy(boundary, 0, buffer, i, len);
+				i += len;
+			} else if (kind < 4) {
+				buffer[i++] = '-';
+			} else {
+				buffer[i++] = (byte) random.nextInt(256);
+			}
+		}
+		return buffer;
+	}
+}
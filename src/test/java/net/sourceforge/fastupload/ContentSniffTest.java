@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import net.sourceforge.fastupload.mock.UploadFixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class ContentSniffTest {
+
+	private static final String BOUNDARY = "--AaB03x";
+
+	private static final byte[] JPEG = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F', 0, 1, 1, 0,
+			0, 1, 0, 1, 0, 0 };
+
+	private static final byte[] MP4 = { 0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'm', 'p', '4', '2', 0, 0, 0, 0, 'i', 's', 'o', 'm' };
+
+	private File repository;
+
+	private FileFactory fileFactory;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = UploadFixtures.createRepository("sniff");
+		fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setRepository(repository.getPath());
+		fileFactory.setAllowedTypes("image/jpeg, image/png, text/plain");
+		fileFactory.setSniffContent(true);
+	}
+
+	@After
+	public void tearDown() {
+		UploadFixtures.deleteRepository(repository);
+	}
+
+	private byte[] body(String fileName, String contentType, byte[] content) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"text1\"\r\n\r\nabcde\r\n").getBytes("ISO-8859-1"));
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file1\"; filename=\"" + fileName + "\"\r\nContent-Type: "
+				+ contentType + "\r\n\r\n").getBytes("ISO-8859-1"));
+		out.write(content);
+		out.write(("\r\n" + BOUNDARY + "--\r\n").getBytes("ISO-8859-1"));
+		return out.toByteArray();
+	}
+
+	private RejectedParts rejectedParts;
+
+	private List<MultiPart> parse(byte[] body) throws IOException {
+		StreamUploadParser parser = new StreamUploadParser(new ByteArrayInputStream(body), fileFactory, BOUNDARY.getBytes());
+		List<MultiPart> parts = parser.parseList();
+		rejectedParts = parser.getRejectedParts();
+		return parts;
+	}
+
+	private byte[] read(MultiPart part) throws IOException {
+		InputStream in = part.getInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int c = in.read(); c != -1; c = in.read())
+			out.write(c);
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testAccepted() throws IOException {
+		List<MultiPart> parts = parse(body("a.jpg", "image/jpeg", JPEG));
+		assertEquals(2, parts.size());
+		assertArrayEquals(JPEG, read(parts.get(1)));
+		assertTrue(rejectedParts.isEmpty());
+	}
+
+	@Test
+	public void testMismatched() throws IOException {
+		List<MultiPart> parts = parse(body("a.jpg", "image/jpeg", MP4));
+		assertEquals(1, parts.size());
+		assertFalse(parts.get(0).isFile());
+		assertEquals(1, rejectedParts.getCount());
+		assertEquals(0, repository.list().length);
+	}
+
+	@Test
+	public void testShort() throws IOException {
+		List<MultiPart> parts = parse(body("a.txt", "text/plain", "abc".getBytes("ISO-8859-1")));
+		assertEquals(2, parts.size());
+		assertEquals("abc", new String(read(parts.get(1)), "ISO-8859-1"));
+
+		parts = parse(body("b.jpg", "image/jpeg", new byte[0]));
+		assertEquals(1, parts.size());
+	}
+}
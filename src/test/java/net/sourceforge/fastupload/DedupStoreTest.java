@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import static net.sourceforge.fastupload.mock.UploadFixtures.CONTENT;
+import static net.sourceforge.fastupload.mock.UploadFixtures.body;
+import static net.sourceforge.fastupload.mock.UploadFixtures.filePart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.List;
+
+import net.sourceforge.fastupload.mock.UploadFixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class DedupStoreTest {
+
+	private File repository;
+
+	private File blobs;
+
+	private DedupStore store;
+
+	private FileFactory fileFactory;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = UploadFixtures.createRepository("dedup");
+		blobs = new File(repository, "blobs");
+		store = new DedupStore(blobs.getPath());
+		fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setRepository(repository.getPath());
+		fileFactory.setRandomFileName(true);
+		fileFactory.setDedupStore(store);
+	}
+
+	@After
+	public void tearDown() {
+		UploadFixtures.deleteRepository(repository);
+	}
+
+	private MultiPartDiskFile parse(String content) throws IOException {
+		return parse(content, "application/octet-stream");
+	}
+
+	private MultiPartDiskFile parse(String content, String contentType) throws IOException {
+		List<MultiPart> parts = new FastUploadParser(UploadFixtures.request(body(filePart("file1", "a.bin", contentType, content))),
+				fileFactory).parseList();
+		assertEquals(1, parts.size());
+		return (MultiPartDiskFile) parts.get(0);
+	}
+
+	private static String read(MultiPart part) throws IOException {
+		InputStream in = part.getInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			for (int c; (c = in.read()) != -1;)
+				out.write(c);
+		} finally {
+			in.close();
+		}
+		return out.toString("ISO-8859-1");
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), "ISO-8859-1");
+	}
+
+	@Test
+	public void testDuplicate() throws Exception {
+		MultiPartDiskFile first = parse(CONTENT);
+		MultiPartDiskFile second = parse(CONTENT);
+		assertTrue(first.isDeduplicated());
+		assertEquals(first.getName(), second.getName());
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(CONTENT.getBytes("ISO-8859-1"));
+		assertEquals(store.getBlob(digest).getPath(), first.getName());
+		assertTrue(store.contains(digest));
+		assertEquals(1, store.getDuplicateCount());
+		assertEquals(CONTENT.length(), store.getDuplicateBytes());
+		// no temporary file is left in the repository
+		assertEquals(1, repository.listFiles().length);
+
+		parse("another content");
+		assertEquals(1, store.getDuplicateCount());
+	}
+
+	@Test
+	public void testToFile() throws IOException {
+		MultiPartDiskFile first = parse(CONTENT);
+		MultiPartDiskFile second = parse(CONTENT);
+		File a = new File(repository, "a");
+		File b = new File(repository, "b");
+		assertTrue(first.toFile(a.getPath()));
+		assertTrue(second.toFile(b.getPath()));
+		assertEquals(CONTENT, read(a));
+		assertEquals(CONTENT, read(b));
+		assertTrue(new File(first.getName()).exists());
+		assertTrue(first.delete());
+		assertTrue(new File(first.getName()).exists());
+	}
+
+	@Test
+	public void testToExistingFile() throws IOException {
+		MultiPartDiskFile part = parse(CONTENT);
+		File a = new File(repository, "a");
+		Files.write(a.toPath(), "kept".getBytes("ISO-8859-1"));
+		assertFalse(part.toFile(a.getPath()));
+		assertEquals("kept", read(a));
+		assertEquals(CONTENT, read(part));
+	}
+
+	@Test
+	public void testCompressedBlob() throws IOException {
+		fileFactory.setCompressionLevel(6);
+		// a zip is stored as it is, the same bytes of another type are
+		// compressed
+		MultiPartDiskFile plain = parse(CONTENT, "application/zip");
+		MultiPartDiskFile compressed = parse(CONTENT, "application/octet-stream");
+		MultiPartDiskFile duplicate = parse(CONTENT, "application/octet-stream");
+		assertFalse(plain.isCompressed());
+		assertTrue(compressed.isCompressed());
+		assertFalse(plain.getName().equals(compressed.getName()));
+		assertEquals(compressed.getName(), duplicate.getName());
+		assertEquals(1, store.getDuplicateCount());
+		assertEquals(CONTENT, read(plain));
+		assertEquals(CONTENT, read(compressed));
+		File a = new File(repository, "a");
+		File b = new File(repository, "b");
+		assertTrue(plain.toFile(a.getPath()));
+		assertTrue(duplicate.toFile(b.getPath()));
+		assertEquals(CONTENT, read(a));
+		assertEquals(CONTENT, read(b));
+	}
+
+	@Test
+	public void testDuplicateTouchesBlob() throws IOException {
+		MultiPartDiskFile first = parse(CONTENT);
+		File blob = new File(first.getName());
+		assertTrue(blob.setLastModified(System.currentTimeMillis() - 3600000));
+		MultiPartDiskFile second = parse(CONTENT);
+		// the blob is referred again, it is not old any more
+		assertEquals(0, store.purge(60000));
+		assertTrue(second.toFile(new File(repository, "a").getPath()));
+	}
+
+	@Test
+	public void testPurge() throws IOException {
+		MultiPartDiskFile linked = parse(CONTENT);
+		MultiPartDiskFile unlinked = parse("another content");
+		assertTrue(linked.toFile(new File(repository, "a").getPath()));
+		assertEquals(0, store.purge(60000));
+		store.purge(-1);
+		assertTrue(new File(linked.getName()).exists());
+		if (Files.getFileStore(blobs.toPath()).supportsFileAttributeView("unix"))
+			assertFalse(new File(unlinked.getName()).exists());
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import static net.sourceforge.fastupload.mock.UploadFixtures.CONTENT;
+import static net.sourceforge.fastupload.mock.UploadFixtures.body;
+import static net.sourceforge.fastupload.mock.UploadFixtures.filePart;
+import static net.sourceforge.fastupload.mock.UploadFixtures.textPart;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.mock.UploadFixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class DiskQuotaTest {
+
+	private static final String BODY = body(textPart("text1", "11111"), filePart("file1", "a.bin", "application/octet-stream", CONTENT));
+
+	private File repository;
+
+	private FileFactory fileFactory;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = UploadFixtures.createRepository("quota");
+		fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setRepository(repository.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		UploadFixtures.deleteRepository(repository);
+	}
+
+	private FastUploadParser parse() throws IOException {
+		return new FastUploadParser(UploadFixtures.request(BODY), fileFactory);
+	}
+
+	private MultiPartDiskFile file(List<MultiPart> parts) {
+		for (MultiPart part : parts)
+			if (part.isFile())
+				return (MultiPartDiskFile) part;
+		return null;
+	}
+
+	@Test
+	public void testTenant() {
+		DiskQuota quota = new DiskQuota(100, 60);
+		assertTrue(quota.tryReserve("a", 60));
+		assertFalse(quota.tryReserve("a", 1));
+		assertTrue(quota.tryReserve("b", 40));
+		assertFalse(quota.tryReserve("b", 1));
+		assertEquals(100, quota.getReserved());
+		quota.release("a", 30);
+		assertFalse(quota.tryReserve("b", 21));
+		assertEquals(100 - 30, quota.getReserved());
+		assertTrue(quota.tryReserve(null, 30));
+		assertEquals(30, quota.getReserved("a"));
+		assertEquals(0, quota.getReserved("c"));
+	}
+
+	@Test
+	public void testConcurrentReserve() throws InterruptedException {
+		final DiskQuota quota = new DiskQuota(1000);
+		final AtomicInteger granted = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 1000; j++)
+						if (quota.tryReserve(null, 1))
+							granted.incrementAndGet();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(1000, granted.get());
+		assertEquals(1000, quota.getReserved());
+	}
+
+	@Test
+	public void testCharge() throws IOException {
+		DiskQuota quota = new DiskQuota(BODY.length());
+		fileFactory.setDiskQuota(quota);
+		List<MultiPart> parts = parse().parseList();
+		assertEquals(2, parts.size());
+		// the bytes not written are released after parsing
+		assertEquals(CONTENT.length(), quota.getReserved());
+		assertTrue(file(parts).toFile(new File(repository, "moved").getPath()));
+		assertEquals(0, quota.getReserved());
+	}
+
+	@Test
+	public void testCloseWithoutParsing() throws IOException {
+		DiskQuota quota = new DiskQuota(BODY.length());
+		fileFactory.setDiskQuota(quota);
+		FastUploadParser parser = parse();
+		assertEquals(BODY.length(), quota.getReserved());
+		parser.close();
+		assertEquals(0, quota.getReserved());
+		parser.close();
+		assertEquals(0, quota.getReserved());
+	}
+
+	@Test
+	public void testReject() throws IOException {
+		DiskQuota quota = new DiskQuota(BODY.length());
+		fileFactory.setDiskQuota(quota);
+		MultiPartDiskFile kept = file(parse().parseList());
+		try {
+			parse();
+			fail();
+		} catch (ThresholdException e) {
+		}
+		assertEquals(CONTENT.length(), quota.getReserved());
+		assertTrue(kept.delete());
+		assertEquals(0, quota.getReserved());
+		assertEquals(2, parse().parseList().size());
+	}
+}
@@ -18,9 +18,24 @@
  */
 package net.sourceforge.fastupload;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import net.sourceforge.fastupload.mock.UploadFixtures;
+import net.sourceforge.fastupload.util.CRC32C;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -90,4 +105,123 @@ public class FileFactoryTest {
 
 	}
 
+	@Test
+	public void testShards() throws IOException {
+		File repository = UploadFixtures.createRepository("shards");
+		try {
+			fileFactory.setRepository(repository.getPath());
+			fileFactory.setRandomFileName(true);
+			fileFactory.setShardLevels(2);
+			MultiPartDiskFile file = (MultiPartDiskFile) fileFactory.createMultiPartFile(imageFileHeader);
+			File dir = new File(file.getName()).getParentFile();
+			assertTrue(dir.isDirectory());
+			assertTrue(dir.getName().matches("[0-9a-f]{2}"));
+			assertEquals(repository, dir.getParentFile().getParentFile());
+			file.append(new byte[] { 1, 2, 3 }, 0, 3);
+			file.close();
+			File target = new File(repository, "moved");
+			assertTrue(file.toFile(target.getPath()));
+			assertEquals(3, target.length());
+		} finally {
+			UploadFixtures.deleteRepository(repository);
+		}
+	}
+
+	@Test
+	public void testDeferred() throws IOException {
+		File repository = new File(System.getProperty("java.io.tmpdir"));
+		fileFactory.setRepository(repository.getPath());
+		fileFactory.setRandomFileName(true);
+		fileFactory.setMemoryThreshold(100);
+		byte[] content = new byte[150];
+		new Random(1867).nextBytes(content);
+
+		DeferredMultiPart part = (DeferredMultiPart) fileFactory.createMultiPartFile(imageFileHeader);
+		part.append(content, 0, 60);
+		assertTrue(part.isInMemory());
+		assertFalse(new File(part.getName()).exists());
+		File target = File.createTempFile("fastupload", ".ico");
+		assertTrue(part.toFile(target.getPath()));
+		assertEquals(60, target.length());
+
+		part.append(content, 60, 90);
+		part.close();
+		assertFalse(part.isInMemory());
+		assertEquals(150, new File(part.getName()).length());
+		byte[] read = new byte[150];
+		new DataInputStream(part.getInputStream()).readFully(read);
+		assertArrayEquals(content, read);
+		assertTrue(part.toFile(target.getPath()));
+		assertEquals(150, target.length());
+		target.delete();
+	}
+
+	@Test
+	public void testDigests() throws Exception {
+		fileFactory.setDigestAlgorithms("SHA-256, MD5, CRC32, CRC32C");
+		byte[] content = "123456789".getBytes("ISO-8859-1");
+		MultiPart part = fileFactory.createMultiPartFile(imageFileHeader);
+		part.append(content, 0, 4);
+		part.append(content, 4, 5);
+		part.close();
+
+		assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content), part.getDigest("SHA-256"));
+		assertArrayEquals(MessageDigest.getInstance("MD5").digest(content), part.getDigest("md5"));
+		CRC32 crc32 = new CRC32();
+		crc32.update(content);
+		assertEquals(crc32.getValue(), ByteBuffer.wrap(part.getDigest("CRC32")).getInt() & 0xffffffffL);
+		// check value of CRC-32C
+		assertEquals(0xe3069283, ByteBuffer.wrap(part.getDigest("CRC32C")).getInt());
+		assertNull(part.getDigest("SHA-1"));
+	}
+
+	@Test
+	public void testCRC32C() {
+		byte[] content = new byte[10000];
+		new Random(1867).nextBytes(content);
+		CRC32C whole = new CRC32C(), split = new CRC32C();
+		whole.update(content, 0, content.length);
+		for (int i = 0; i < content.length; i++)
+			split.update(content[i]);
+		assertEquals(whole.getValue(), split.getValue());
+	}
+
+	/**
+	 * a factory of the deprecated hooks, rejects the field named skip and
+	 * creates the parts of the others by the config
+	 */
+	private static class HookFileFactory extends FileFactory {
+
+		private int created;
+
+		@Override
+		protected MultiPart createMultiPartFile(ContentHeaderMap header) throws IOException {
+			created++;
+			return super.createMultiPartFile(header);
+		}
+
+		@Override
+		protected boolean acceptable(ContentHeaderMap contentHeaderMap) {
+			return !contentHeaderMap.getName().equals("skip") && super.acceptable(contentHeaderMap);
+		}
+	}
+
+	@Test
+	public void testOverriddenHooks() throws IOException {
+		HookFileFactory hookFactory = new HookFileFactory();
+		String body = UploadFixtures.body(UploadFixtures.textPart("skip", "a"), UploadFixtures.textPart("text1", "b"));
+		MemoryUploadParser parser = new MemoryUploadParser(new ByteArrayInputStream(body.getBytes("ISO-8859-1")), hookFactory,
+				("--" + UploadFixtures.BOUNDARY).getBytes(), -1);
+		List<MultiPart> parts = parser.parseList();
+		assertEquals(1, parts.size());
+		assertEquals("text1", parts.get(0).getFieldName());
+		assertEquals(1, hookFactory.created);
+		assertEquals(1, parser.getRejectedParts().getCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownDigest() {
+		fileFactory.setDigestAlgorithms("SHA-256, NO-SUCH");
+	}
+
 }
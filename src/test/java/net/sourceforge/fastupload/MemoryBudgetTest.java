@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.mock.SimpleHttpServletRequestMock;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MemoryBudgetTest {
+
+	private static final String BOUNDARY = "---------------------------1437360015666227002297487156";
+
+	private static final String BODY = "--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"text1\"\r\n\r\n" + "11111\r\n"
+			+ "--" + BOUNDARY + "--\r\n";
+
+	private FastUploadParser parse(FileFactory fileFactory) throws IOException {
+		return new FastUploadParser(new SimpleHttpServletRequestMock(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1"))), fileFactory);
+	}
+
+	@Test
+	public void testReserve() {
+		MemoryBudget budget = new MemoryBudget(100, MemoryBudget.Policy.REJECT);
+		assertTrue(budget.tryReserve(60));
+		assertFalse(budget.tryReserve(41));
+		assertTrue(budget.tryReserve(40));
+		budget.release(60);
+		assertEquals(40, budget.getReserved());
+		assertFalse(budget.tryReserve(101));
+	}
+
+	@Test
+	public void testWait() throws Exception {
+		final MemoryBudget budget = new MemoryBudget(100, MemoryBudget.Policy.WAIT);
+		assertTrue(budget.tryReserve(100));
+		Thread releaser = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				budget.release(100);
+			}
+		};
+		releaser.start();
+		assertTrue(budget.reserve(80, 5000));
+		releaser.join();
+		assertFalse(budget.reserve(30, 10));
+		assertEquals(80, budget.getReserved());
+	}
+
+	@Test
+	public void testReject() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setMemoryBudget(new MemoryBudget(BODY.length(), MemoryBudget.Policy.REJECT));
+		FastUploadParser first = parse(fileFactory);
+		assertEquals(1, first.parseList().size());
+		try {
+			parse(fileFactory);
+			fail();
+		} catch (ThresholdException e) {
+		}
+		first.close();
+		assertEquals(0, fileFactory.getMemoryBudget().getReserved());
+		FastUploadParser second = parse(fileFactory);
+		assertEquals(BODY.length(), fileFactory.getMemoryBudget().getReserved());
+		second.close();
+		second.close();
+		assertEquals(0, fileFactory.getMemoryBudget().getReserved());
+	}
+
+	/**
+	 * a request of unknown length with a text part of the bytes
+	 */
+	private FastUploadParser parseUnknownLength(FileFactory fileFactory, int bytes) throws IOException {
+		char[] value = new char[bytes];
+		Arrays.fill(value, 'x');
+		String body = "--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"text1\"\r\n\r\n" + new String(value) + "\r\n"
+				+ "--" + BOUNDARY + "--\r\n";
+		return new FastUploadParser(new SimpleHttpServletRequestMock(new ByteArrayInputStream(body.getBytes("ISO-8859-1"))) {
+			@Override
+			public int getContentLength() {
+				return -1;
+			}
+		}, fileFactory);
+	}
+
+	@Test
+	public void testUnknownLength() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setMaxContentLength(0x100000);
+		fileFactory.setMemoryBudget(new MemoryBudget(0x100000, MemoryBudget.Policy.REJECT));
+		FastUploadParser parser = parseUnknownLength(fileFactory, 20000);
+		// the slabs read are reserved, not the max content length
+		long reserved = fileFactory.getMemoryBudget().getReserved();
+		assertTrue(reserved >= 20000 && reserved < 0x10000);
+		assertEquals(1, parser.parseList().size());
+		parser.close();
+		assertEquals(0, fileFactory.getMemoryBudget().getReserved());
+
+		fileFactory.setMemoryBudget(new MemoryBudget(0x4000, MemoryBudget.Policy.REJECT));
+		try {
+			parseUnknownLength(fileFactory, 20000);
+			fail();
+		} catch (ThresholdException e) {
+		}
+		assertEquals(0, fileFactory.getMemoryBudget().getReserved());
+	}
+
+	@Test
+	public void testReleaseOnFailure() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setMemoryBudget(new MemoryBudget(BODY.length(), MemoryBudget.Policy.REJECT));
+		fileFactory.setThreshold(3);
+		FastUploadParser parser = parse(fileFactory);
+		assertEquals(BODY.length(), fileFactory.getMemoryBudget().getReserved());
+		try {
+			parser.parseList();
+			fail();
+		} catch (ThresholdException e) {
+		}
+		assertEquals(0, fileFactory.getMemoryBudget().getReserved());
+	}
+}
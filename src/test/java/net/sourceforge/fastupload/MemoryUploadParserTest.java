@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.util.SegmentedBuffer;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MemoryUploadParserTest {
+
+	private static final String BOUNDARY = "--AaB03x";
+
+	private byte[] content = new byte[3000000];
+
+	private byte[] createBody() throws IOException {
+		new Random(1867).nextBytes(content);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"text1\"\r\n\r\n11111\r\n").getBytes("ISO-8859-1"));
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file1\"; filename=\"a.bin\"\r\n"
+				+ "Content-Type: application/octet-stream\r\n\r\n").getBytes("ISO-8859-1"));
+		out.write(content);
+		out.write(("\r\n" + BOUNDARY + "--\r\n").getBytes("ISO-8859-1"));
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testUnknownContentLength() throws IOException {
+		byte[] body = createBody();
+		MemoryUploadParser parser = new MemoryUploadParser(new ByteArrayInputStream(body), FileFactory.getInstance("ISO-8859-1"),
+				BOUNDARY.getBytes(), -1);
+		assertParts(parser.parseList());
+		assertEquals(body.length, parser.getReadBytes());
+	}
+
+	@Test
+	public void testWrongContentLength() throws IOException {
+		byte[] body = createBody();
+		assertParts(new MemoryUploadParser(new ByteArrayInputStream(body), FileFactory.getInstance("ISO-8859-1"), BOUNDARY.getBytes(),
+				100).parseList());
+	}
+
+	@Test(expected = ThresholdException.class)
+	public void testMaxContentLength() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setMaxContentLength(1000000);
+		new MemoryUploadParser(new ByteArrayInputStream(createBody()), fileFactory, BOUNDARY.getBytes(), -1);
+	}
+
+	@Test
+	public void testSegmentedBuffer() throws IOException {
+		byte[] body = createBody();
+		SegmentedBuffer buffer = new SegmentedBuffer(0x10000);
+		assertEquals(body.length, buffer.readFrom(new ByteArrayInputStream(body), body.length, 0));
+		// the exact expected length needs no more slab
+		buffer = new SegmentedBuffer();
+		buffer.readFrom(new ByteArrayInputStream(body, 0, 0x1000), 0x1000, 0);
+		assertEquals(1, buffer.getSlabCount());
+		assertEquals(0x1000, buffer.getSlabLength(0));
+	}
+
+	@Test
+	public void testByteBufferView() throws IOException {
+		List<MultiPart> parts = new MemoryUploadParser(new ByteArrayInputStream(createBody()), FileFactory.getInstance("ISO-8859-1"),
+				BOUNDARY.getBytes(), -1).parseList();
+		MemoryMultiPart part = (MemoryMultiPart) parts.get(1);
+		ByteBuffer view = part.asByteBuffer();
+		assertTrue(view.isReadOnly());
+		assertEquals(ByteBuffer.wrap(content), view);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(content.length, part.writeTo(Channels.newChannel(out)));
+		assertArrayEquals(content, out.toByteArray());
+
+		byte[] read = new byte[content.length];
+		assertEquals(content.length, new DataInputStream(part.getInputStream()).read(read, 0, read.length));
+	}
+
+	@Test
+	public void testAppendedSegments() throws IOException {
+		MemoryMultiPart part = new MemoryMultiPart("text1");
+		part.append(content, 0, 10);
+		part.share(content, 10, 100);
+		part.append(content, 110, 1000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		part.writeTo(Channels.newChannel(out));
+		assertArrayEquals(Arrays.copyOf(content, 1110), out.toByteArray());
+		assertEquals(ByteBuffer.wrap(content, 0, 1110), part.asByteBuffer());
+	}
+
+	private void assertParts(List<MultiPart> parts) {
+		assertEquals(2, parts.size());
+		assertEquals("text1", parts.get(0).getFieldName());
+		assertArrayEquals(content, parts.get(1).getContentBuffer());
+	}
+}
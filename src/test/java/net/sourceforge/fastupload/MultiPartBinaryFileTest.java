@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MultiPartBinaryFileTest {
+
+	private byte[] content = new byte[3000000];
+
+	private File file;
+
+	@After
+	public void clean() {
+		if (file != null)
+			file.delete();
+	}
+
+	private MultiPartBinaryFile write(long mapLength) throws IOException {
+		new Random(1867).nextBytes(content);
+		file = File.createTempFile("fastupload", ".bin");
+		MultiPartBinaryFile part = new MultiPartBinaryFile(file.getPath());
+		part.map(mapLength);
+		Random random = new Random(17);
+		for (int p = 0; p < content.length;) {
+			int len = Math.min(content.length - p, random.nextInt(0x2000));
+			part.append(content, p, len);
+			p += len;
+		}
+		return part;
+	}
+
+	private void assertContent(MultiPartBinaryFile part) throws IOException {
+		part.close();
+		assertEquals(content.length, file.length());
+		byte[] read = new byte[content.length];
+		DataInputStream in = new DataInputStream(part.getInputStream());
+		in.readFully(read);
+		in.close();
+		assertArrayEquals(content, read);
+	}
+
+	@Test
+	public void testCoalescingWrite() throws IOException {
+		MultiPartBinaryFile part = write(0);
+		assertFalse(part.isMapped());
+		assertContent(part);
+	}
+
+	@Test
+	public void testMappedWrite() throws IOException {
+		MultiPartBinaryFile part = write(content.length * 2);
+		assertTrue(part.isMapped());
+		assertContent(part);
+	}
+
+	@Test
+	public void testMappedRegionExceeded() throws IOException {
+		MultiPartBinaryFile part = write(content.length / 3);
+		assertFalse(part.isMapped());
+		assertContent(part);
+	}
+}
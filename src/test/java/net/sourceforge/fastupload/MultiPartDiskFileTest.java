@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.InflaterInputStream;
+
+import net.sourceforge.fastupload.mock.UploadFixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MultiPartDiskFileTest {
+
+	private File repository;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = UploadFixtures.createRepository("diskfile");
+	}
+
+	@After
+	public void clean() {
+		UploadFixtures.deleteRepository(repository);
+	}
+
+	private MultiPartDiskFile write(String contentType, byte[] content) throws IOException {
+		file = File.createTempFile("fastupload", ".tmp", repository);
+		ContentHeaderMap header = new ContentHeaderMap();
+		header.put("name", "file1");
+		header.put("filename", "a.dat");
+		header.put("Content-Type", contentType);
+		MultiPartBinaryFile part = new MultiPartBinaryFile(file.getPath());
+		part.setContentHeaderMap(header);
+		part.setCompressionLevel(1);
+		for (int p = 0; p < content.length; p += 1000)
+			part.append(content, p, Math.min(1000, content.length - p));
+		part.close();
+		return part;
+	}
+
+	private byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buff = new byte[0x1000];
+		for (int c; (c = in.read(buff)) != -1;)
+			out.write(buff, 0, c);
+		in.close();
+		return out.toByteArray();
+	}
+
+	private byte[] csv() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 10000; i++)
+			sb.append(i).append(",fastupload,").append(i * 7).append("\r\n");
+		return sb.toString().getBytes("ISO-8859-1");
+	}
+
+	@Test
+	public void testCompress() throws IOException {
+		byte[] content = csv();
+		MultiPartDiskFile part = write("text/csv", content);
+		assertTrue(part.isCompressed());
+		assertTrue(file.length() * 3 < content.length);
+		assertArrayEquals(content, read(part.getInputStream()));
+
+		File target = new File(repository, "a.csv");
+		assertTrue(part.toFile(target.getPath()));
+		assertArrayEquals(content, read(new FileInputStream(target)));
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testKeepCompressed() throws IOException {
+		byte[] content = csv();
+		MultiPartDiskFile part = write("text/csv", content);
+		File target = new File(repository, "a.csv.z");
+		assertTrue(part.toFile(target.getPath(), true));
+		assertArrayEquals(content, read(new InflaterInputStream(new FileInputStream(target))));
+	}
+
+	@Test
+	public void testSkipCompressed() throws IOException {
+		byte[] content = new byte[10000];
+		new Random(1867).nextBytes(content);
+		assertFalse(write("image/jpeg", content).isCompressed());
+
+		// a zip file of a generic content type
+		content[0] = 'P';
+		content[1] = 'K';
+		content[2] = 3;
+		content[3] = 4;
+		MultiPartDiskFile part = write("application/octet-stream", content);
+		assertFalse(part.isCompressed());
+		assertArrayEquals(content, read(part.getInputStream()));
+	}
+}
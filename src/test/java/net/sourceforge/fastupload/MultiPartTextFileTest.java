@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MultiPartTextFileTest {
+
+	private File file;
+
+	@After
+	public void clean() {
+		if (file != null)
+			file.delete();
+	}
+
+	private String createText() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+			sb.append("line ").append(i).append(", 快速上传 éè 😀\r\n");
+		return sb.toString();
+	}
+
+	private byte[] write(byte[] bytes, String encoding, String charset) throws IOException {
+		file = File.createTempFile("fastupload", ".txt");
+		MultiPartTextFile part = new MultiPartTextFile(file.getPath(), charset);
+		part.setEncoding(encoding);
+		Random random = new Random(1867);
+		// split multibyte characters at any position
+		for (int p = 0; p < bytes.length;) {
+			int len = Math.min(bytes.length - p, 1 + random.nextInt(7));
+			part.append(bytes, p, len);
+			p += len;
+		}
+		part.close();
+		byte[] read = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(part.getInputStream());
+		in.readFully(read);
+		in.close();
+		return read;
+	}
+
+	@Test
+	public void testTranscode() throws IOException {
+		String text = createText();
+		byte[] read = write(text.getBytes("UTF-8"), "UTF-8", "UTF-16LE");
+		assertEquals(text, new String(read, "UTF-16LE"));
+	}
+
+	@Test
+	public void testPassThrough() throws IOException {
+		byte[] bytes = createText().getBytes("UTF-8");
+		assertArrayEquals(bytes, write(bytes, "utf8", "UTF-8"));
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class MultipartParserTest {
+
+	private static final String BOUNDARY = "---------------------------1437360015666227002297487156";
+
+	private static final String BODY = "--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"text1\"\r\n\r\n" + "11111\r\n"
+			+ "--" + BOUNDARY + "\r\n" + "Content-Disposition: form-data; name=\"file1\"; filename=\"a.txt\"\r\n"
+			+ "Content-Type: text/plain\r\n\r\n" + "line 1\r\n--" + BOUNDARY.substring(0, 20) + "\r\nline 2\r\n" + "--" + BOUNDARY
+			+ "--\r\n";
+
+	@Test
+	public void testFeedHeapBuffers() throws IOException {
+		Random random = new Random(1867);
+		for (int n = 0; n < 200; n++) {
+			RecordingListener listener = new RecordingListener();
+			MultipartParser parser = new MultipartParser(("--" + BOUNDARY).getBytes(), "ISO-8859-1", listener);
+			byte[] body = BODY.getBytes("ISO-8859-1");
+			for (int p = 0; p < body.length;) {
+				int len = Math.min(body.length - p, 1 + random.nextInt(64));
+				// feed a slice of a larger array to test the array offset
+				byte[] array = new byte[len + 8];
+				System.arraycopy(body, p, array, 4, len);
+				parser.feed(ByteBuffer.wrap(array, 4, len).slice());
+				p += len;
+			}
+			assertParts(listener);
+			assertTrue(parser.isFinished());
+		}
+	}
+
+	@Test
+	public void testFeedDirectBuffer() throws IOException {
+		RecordingListener listener = new RecordingListener();
+		MultipartParser parser = new MultipartParser(("--" + BOUNDARY).getBytes(), "ISO-8859-1", listener);
+		byte[] body = BODY.getBytes("ISO-8859-1");
+		ByteBuffer direct = ByteBuffer.allocateDirect(body.length);
+		direct.put(body).flip();
+		parser.feed(direct);
+		assertParts(listener);
+	}
+
+	private void assertParts(RecordingListener listener) {
+		assertEquals(2, listener.names.size());
+		assertEquals("text1", listener.names.get(0));
+		assertEquals("11111", listener.contents.get(0));
+		assertEquals("a.txt", listener.fileNames.get(1));
+		assertEquals("line 1\r\n--" + BOUNDARY.substring(0, 20) + "\r\nline 2", listener.contents.get(1));
+	}
+
+	private static class RecordingListener implements PartListener {
+
+		List<String> names = new ArrayList<String>();
+
+		List<String> fileNames = new ArrayList<String>();
+
+		List<String> contents = new ArrayList<String>();
+
+		ByteArrayOutputStream out;
+
+		public boolean partStart(ContentHeaderMap header) {
+			names.add(header.getName());
+			fileNames.add(header.getFileName());
+			out = new ByteArrayOutputStream();
+			return true;
+		}
+
+		public void partData(byte[] buff, int off, int len) {
+			out.write(buff, off, len);
+		}
+
+		public void partEnd() throws IOException {
+			contents.add(out.toString("ISO-8859-1"));
+		}
+	}
+}
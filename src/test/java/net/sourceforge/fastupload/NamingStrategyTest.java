@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import static net.sourceforge.fastupload.mock.UploadFixtures.CONTENT;
+import static net.sourceforge.fastupload.mock.UploadFixtures.body;
+import static net.sourceforge.fastupload.mock.UploadFixtures.filePart;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sourceforge.fastupload.mock.UploadFixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class NamingStrategyTest {
+
+	private static final String BODY = body(filePart("file1", "a.bin", "application/octet-stream", CONTENT));
+
+	private File repository;
+
+	private FileFactory fileFactory;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = UploadFixtures.createRepository("naming");
+		fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setRepository(repository.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		UploadFixtures.deleteRepository(repository);
+	}
+
+	private MultiPart parse() throws IOException {
+		List<MultiPart> parts = new FastUploadParser(UploadFixtures.request(BODY), fileFactory).parseList();
+		assertEquals(1, parts.size());
+		return parts.get(0);
+	}
+
+	@Test
+	public void testRandomUnique() throws InterruptedException {
+		final Set<String> names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final NamingStrategy strategy = new RandomNamingStrategy();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++)
+						names.add(strategy.tempName(null));
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(40000, names.size());
+		for (String name : names) {
+			assertTrue(name, name.matches("[0-9a-v]+\\.tmp"));
+			break;
+		}
+		assertNull(strategy.closedName(null));
+	}
+
+	@Test
+	public void testClient() throws IOException {
+		MultiPart part = parse();
+		assertEquals(new File(repository, "a.bin").getPath(), part.getName());
+		fileFactory.setRandomFileName(true);
+		assertFalse(parse().getName().endsWith("a.bin"));
+	}
+
+	@Test
+	public void testContentAddressed() throws Exception {
+		fileFactory.setNamingStrategy(new ContentAddressedNamingStrategy());
+		MultiPart first = parse();
+		String hex = ContentAddressedNamingStrategy.hex(MessageDigest.getInstance("SHA-256").digest(CONTENT.getBytes("ISO-8859-1")));
+		assertEquals(new File(repository, hex).getPath(), first.getName());
+		assertEquals(CONTENT.length(), new File(first.getName()).length());
+		// the file of the same content is not replaced, every part keeps its own
+		MultiPart second = parse();
+		assertFalse(first.getName().equals(second.getName()));
+		assertEquals(2, repository.listFiles().length);
+		File a = new File(repository, "a");
+		File b = new File(repository, "b");
+		assertTrue(first.toFile(a.getPath()));
+		assertTrue(second.toFile(b.getPath()));
+		assertEquals(CONTENT, new String(Files.readAllBytes(a.toPath()), "ISO-8859-1"));
+		assertEquals(CONTENT, new String(Files.readAllBytes(b.toPath()), "ISO-8859-1"));
+	}
+
+	@Test
+	public void testContentAddressedDeferred() throws Exception {
+		fileFactory.setNamingStrategy(new ContentAddressedNamingStrategy("MD5"));
+		fileFactory.setMemoryThreshold(8);
+		MultiPart part = parse();
+		assertTrue(part instanceof DeferredMultiPart);
+		String hex = ContentAddressedNamingStrategy.hex(MessageDigest.getInstance("MD5").digest(CONTENT.getBytes("ISO-8859-1")));
+		assertEquals(new File(repository, hex).getPath(), part.getName());
+		assertTrue(new File(part.getName()).exists());
+	}
+}
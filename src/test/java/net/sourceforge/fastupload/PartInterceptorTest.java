@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class PartInterceptorTest {
+
+	private static final String BOUNDARY = "--AaB03x";
+
+	private static final String BODY = BOUNDARY + "\r\nContent-Disposition: form-data; name=\"text1\"\r\n\r\nabcde\r\n" + BOUNDARY
+			+ "\r\nContent-Disposition: form-data; name=\"skip\"\r\n\r\nskipped\r\n" + BOUNDARY
+			+ "\r\nContent-Disposition: form-data; name=\"text2\"\r\n\r\nfghij\r\n" + BOUNDARY + "--\r\n";
+
+	/**
+	 * upper the letters, and veto the part named skip
+	 */
+	private static class UpperInterceptor implements PartInterceptor {
+
+		public boolean open(MultiPart part, InterceptorChain chain) throws IOException {
+			return !part.getFieldName().equals("skip");
+		}
+
+		public void append(MultiPart part, byte[] buff, int off, int len, InterceptorChain chain) throws IOException {
+			byte[] upper = new String(buff, off, len, "ISO-8859-1").toUpperCase().getBytes("ISO-8859-1");
+			chain.append(upper, 0, upper.length);
+		}
+
+		public void close(MultiPart part, InterceptorChain chain) throws IOException {
+		}
+	}
+
+	/**
+	 * count bytes of a part, and append the count at closing
+	 */
+	private static class CountInterceptor implements PartInterceptor {
+
+		public boolean open(MultiPart part, InterceptorChain chain) throws IOException {
+			chain.setState(0);
+			return true;
+		}
+
+		public void append(MultiPart part, byte[] buff, int off, int len, InterceptorChain chain) throws IOException {
+			chain.setState((Integer) chain.getState() + len);
+			chain.append(buff, off, len);
+		}
+
+		public void close(MultiPart part, InterceptorChain chain) throws IOException {
+			byte[] count = (":" + chain.getState()).getBytes("ISO-8859-1");
+			chain.append(count, 0, count.length);
+		}
+	}
+
+	/**
+	 * record the calls of open and close, veto or fail the part named skip
+	 */
+	private static class RecordInterceptor implements PartInterceptor {
+
+		private final String id;
+
+		private final String onSkip;
+
+		private final List<String> calls;
+
+		RecordInterceptor(String id, String onSkip, List<String> calls) {
+			this.id = id;
+			this.onSkip = onSkip;
+			this.calls = calls;
+		}
+
+		public boolean open(MultiPart part, InterceptorChain chain) throws IOException {
+			if (part.getFieldName().equals("skip")) {
+				if ("fail".equals(onSkip))
+					throw new IOException("fail " + id);
+				if ("veto".equals(onSkip))
+					return false;
+			}
+			calls.add("open " + id + " " + part.getFieldName());
+			return true;
+		}
+
+		public void append(MultiPart part, byte[] buff, int off, int len, InterceptorChain chain) throws IOException {
+			chain.append(buff, off, len);
+		}
+
+		public void close(MultiPart part, InterceptorChain chain) throws IOException {
+			calls.add("close " + id + " " + part.getFieldName());
+			chain.append(new byte[] { '!' }, 0, 1);
+		}
+	}
+
+	private List<String> callsOnSkip(String onSkip) throws IOException {
+		List<String> calls = new ArrayList<String>();
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.addInterceptor(new RecordInterceptor("a", null, calls));
+		fileFactory.addInterceptor(new RecordInterceptor("b", null, calls));
+		fileFactory.addInterceptor(new RecordInterceptor("c", onSkip, calls));
+		try {
+			new MemoryUploadParser(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1")), fileFactory, BOUNDARY.getBytes(), -1).parseList();
+		} catch (IOException e) {
+			assertEquals("fail c", e.getMessage());
+		}
+		List<String> skip = new ArrayList<String>();
+		for (String call : calls)
+			if (call.endsWith(" skip"))
+				skip.add(call);
+		return skip;
+	}
+
+	@Test
+	public void testCloseOpenedOnVeto() throws IOException {
+		List<String> calls = callsOnSkip("veto");
+		assertEquals("[open a skip, open b skip, close b skip, close a skip]", calls.toString());
+	}
+
+	@Test
+	public void testCloseOpenedOnFailure() throws IOException {
+		List<String> calls = callsOnSkip("fail");
+		assertEquals("[open a skip, open b skip, close b skip, close a skip]", calls.toString());
+	}
+
+	@Test
+	public void testChain() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.addInterceptor(new UpperInterceptor());
+		fileFactory.addInterceptor(new CountInterceptor());
+		List<MultiPart> parts = new MemoryUploadParser(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1")), fileFactory,
+				BOUNDARY.getBytes(), -1).parseList();
+		assertEquals(2, parts.size());
+		assertEquals("ABCDE:5", parts.get(0).getString());
+		assertEquals("FGHIJ:5", parts.get(1).getString());
+	}
+}
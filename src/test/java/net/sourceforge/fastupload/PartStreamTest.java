@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.mock.UploadFixtures;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class PartStreamTest {
+
+	private static final String BOUNDARY = "--AaB03x";
+
+	private byte[] content = new byte[30000];
+
+	private byte[] createBody() throws IOException {
+		new Random(1867).nextBytes(content);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"text1\"\r\n\r\n11111\r\n").getBytes("ISO-8859-1"));
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file1\"; filename=\"a.bin\"\r\n"
+				+ "Content-Type: application/octet-stream\r\n\r\n").getBytes("ISO-8859-1"));
+		out.write(content);
+		out.write(("\r\n" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"text2\"\r\n\r\n22222\r\n" + BOUNDARY + "--\r\n")
+				.getBytes("ISO-8859-1"));
+		return out.toByteArray();
+	}
+
+	private InputStream slowStream(byte[] body, final Random random) {
+		return new FilterInputStream(new ByteArrayInputStream(body)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 1 + random.nextInt(300)));
+			}
+		};
+	}
+
+	@Test
+	public void testReadParts() throws IOException {
+		Random random = new Random(2388);
+		for (int n = 0; n < 50; n++) {
+			PartStream parts = new PartStream(slowStream(createBody(), random), FileFactory.getInstance("ISO-8859-1"), BOUNDARY.getBytes());
+
+			assertTrue(parts.hasNext());
+			MultiPart part = parts.next();
+			assertEquals("text1", part.getFieldName());
+			assertEquals("11111", part.getString());
+
+			part = parts.next();
+			assertEquals("a.bin", part.getFileName());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			InputStream in = part.getInputStream();
+			byte[] buff = new byte[1 + random.nextInt(5000)];
+			for (int c; (c = in.read(buff)) != -1;)
+				out.write(buff, 0, c);
+			assertArrayEquals(content, out.toByteArray());
+			assertEquals(content.length, part.getBytes());
+
+			part = parts.next();
+			assertEquals("22222", part.getString());
+			assertFalse(parts.hasNext());
+		}
+	}
+
+	@Test
+	public void testSkipUnreadContent() throws IOException {
+		PartStream parts = new PartStream(slowStream(createBody(), new Random(17)), FileFactory.getInstance("ISO-8859-1"),
+				BOUNDARY.getBytes());
+		parts.next();
+		MultiPart file = parts.next();
+		// read a few bytes of the file only
+		assertEquals(content[0] & 0xff, file.getInputStream().read());
+		MultiPart text2 = parts.next();
+		assertEquals("22222", text2.getString());
+		assertEquals(-1, file.getInputStream().read());
+		assertFalse(parts.hasNext());
+	}
+
+	@Test
+	public void testParseList() throws IOException {
+		byte[] body = createBody();
+		PartStream parts = new PartStream(new ByteArrayInputStream(body), FileFactory.getInstance("ISO-8859-1"), BOUNDARY.getBytes());
+		List<MultiPart> list = parts.parseList();
+		assertEquals(3, list.size());
+		assertArrayEquals(content, list.get(1).getContentBuffer());
+		assertEquals(body.length, parts.getReadBytes());
+	}
+
+	@Test
+	public void testMemoryBudget() throws IOException {
+		String body = UploadFixtures.body(UploadFixtures.textPart("text1", "abcde"));
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		MemoryBudget budget = new MemoryBudget(body.length(), MemoryBudget.Policy.REJECT);
+		fileFactory.setMemoryBudget(budget);
+		PartStream parts = FastUploadParser.parseStream(UploadFixtures.request(body), fileFactory);
+		assertEquals(body.length(), budget.getReserved());
+		try {
+			FastUploadParser.parseStream(UploadFixtures.request(body), fileFactory);
+			fail();
+		} catch (ThresholdException e) {
+		}
+		assertEquals("abcde", parts.next().getString());
+		assertFalse(parts.hasNext());
+		// released as the input stream ends
+		assertEquals(0, budget.getReserved());
+	}
+}
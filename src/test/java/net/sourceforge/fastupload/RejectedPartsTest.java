@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class RejectedPartsTest {
+
+	private static final String BOUNDARY = "--AaB03x";
+
+	private byte[] body(int rejected, int length) throws IOException {
+		byte[] content = new byte[length];
+		Arrays.fill(content, (byte) 'x');
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < rejected; i++) {
+			out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file" + i + "\"; filename=\"a" + i
+					+ ".exe\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes("ISO-8859-1"));
+			out.write(content);
+			out.write("\r\n".getBytes("ISO-8859-1"));
+		}
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"image\"; filename=\"a.png\"\r\nContent-Type: image/png\r\n\r\npng\r\n"
+				+ BOUNDARY + "--\r\n").getBytes("ISO-8859-1"));
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testBounded() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setAllowedTypes("image/png");
+		StreamUploadParser parser = new StreamUploadParser(new ByteArrayInputStream(body(40, 0x10000)), fileFactory,
+				BOUNDARY.getBytes());
+		List<MultiPart> parts = parser.parseList();
+		assertEquals(1, parts.size());
+		assertEquals("png", new String(parts.get(0).getContentBuffer(), "ISO-8859-1"));
+
+		RejectedParts rejectedParts = parser.getRejectedParts();
+		assertEquals(40, rejectedParts.getCount());
+		assertEquals(rejectedParts.getLimit(), rejectedParts.getHeaders().size());
+		assertEquals("a0.exe", rejectedParts.getHeaders().get(0).getFileName());
+		assertTrue(rejectedParts.isTruncated());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testExceptionals() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setAllowedTypes("image/png");
+		new MemoryUploadParser(new ByteArrayInputStream(body(2, 10)), fileFactory, BOUNDARY.getBytes(), -1).parseList();
+		assertEquals(2, fileFactory.getExceptionals().size());
+	}
+
+	@Test
+	public void testPerRequest() throws IOException {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setAllowedTypes("image/png");
+		new MemoryUploadParser(new ByteArrayInputStream(body(2, 10)), fileFactory, BOUNDARY.getBytes(), -1).parseList();
+		MemoryUploadParser parser = new MemoryUploadParser(new ByteArrayInputStream(body(0, 10)), fileFactory,
+				BOUNDARY.getBytes(), -1);
+		assertEquals(1, parser.parseList().size());
+		assertTrue(parser.getRejectedParts().isEmpty());
+		assertFalse(parser.getRejectedParts().isTruncated());
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sourceforge.fastupload.exception.FileUploadParserException;
+import net.sourceforge.fastupload.exception.ThresholdException;
+import net.sourceforge.fastupload.mock.SimpleHttpServletRequestMock;
+import net.sourceforge.fastupload.mock.UploadFixtures;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class ResumableUploadParserTest {
+
+	private static final String BOUNDARY = "--AaB03x";
+
+	private File repository;
+
+	private UploadConfig config;
+
+	private FileFactory fileFactory;
+
+	private FileSessionStore store;
+
+	private byte[] content = new byte[100000];
+
+	@Before
+	public void setUp() throws IOException {
+		repository = UploadFixtures.createRepository("resumable");
+		fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setRepository(repository.getPath());
+		config = fileFactory.getConfig();
+		store = new FileSessionStore(repository.getPath());
+		new Random(19).nextBytes(content);
+	}
+
+	@After
+	public void tearDown() {
+		UploadFixtures.deleteRepository(repository);
+	}
+
+	private byte[] body(int from, int to) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"text1\"\r\n\r\nabcde\r\n").getBytes("ISO-8859-1"));
+		out.write((BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file1\"; filename=\"a.bin\"\r\n"
+				+ "Content-Type: application/octet-stream\r\n\r\n").getBytes("ISO-8859-1"));
+		out.write(content, from, to - from);
+		out.write(("\r\n" + BOUNDARY + "--\r\n").getBytes("ISO-8859-1"));
+		return out.toByteArray();
+	}
+
+	private ResumableUploadParser parser(String uploadId, int from, int to, byte[] body) {
+		return new ResumableUploadParser(new ByteArrayInputStream(body), new UploadContext(config, null), BOUNDARY.getBytes(), store,
+				uploadId, "bytes " + from + "-" + (to - 1) + "/" + content.length);
+	}
+
+	private byte[] read(MultiPart part) throws IOException {
+		InputStream in = part.getInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buff = new byte[0x2000];
+		for (int c; (c = in.read(buff)) != -1;)
+			out.write(buff, 0, c);
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testChunks() throws IOException {
+		ResumableUploadParser parser = parser(null, 40000, 70000, body(40000, 70000));
+		List<MultiPart> parts = parser.parseList();
+		assertEquals(1, parts.size());
+		String id = parser.getUploadId();
+		assertEquals(0, parser.getSession().getOffset());
+		assertEquals(30000, parser.getSession().getReceived());
+
+		parser = parser(id, 0, 40000, body(0, 40000));
+		assertEquals(1, parser.parseList().size());
+		assertEquals(70000, store.load(id).getOffset());
+
+		parser = parser(id, 70000, 100000, body(70000, 100000));
+		parts = parser.parseList();
+		assertEquals(2, parts.size());
+		assertTrue(parser.getSession().isComplete());
+		assertNull(store.load(id));
+
+		MultiPart file = parts.get(1);
+		assertEquals("a.bin", file.getFileName());
+		assertEquals(content.length, file.getBytes());
+		assertArrayEquals(content, read(file));
+		File dest = new File(repository, "a.bin");
+		assertTrue(file.toFile(dest.getPath()));
+		assertEquals(content.length, dest.length());
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		ResumableUploadParser parser = parser(null, 0, 50000, body(0, 50000));
+		parser.parseList();
+		String id = parser.getUploadId();
+
+		// the connection is lost in the middle of the chunk
+		try {
+			parser(id, 50000, 100000, Arrays.copyOf(body(50000, 100000), 20000)).parseList();
+			fail();
+		} catch (FileUploadParserException e) {
+		}
+		// the content bytes received are kept
+		UploadSession session = store.load(id);
+		int offset = (int) session.getOffset();
+		assertTrue(offset > 50000 && offset < 50000 + 20000);
+		assertFalse(session.isComplete());
+
+		List<MultiPart> parts = parser(id, offset, 100000, body(offset, 100000)).parseList();
+		assertEquals(2, parts.size());
+		assertArrayEquals(content, read(parts.get(1)));
+	}
+
+	@Test
+	public void testContentRange() {
+		assertArrayEquals(new long[] { 0, 1024, 4096 }, ResumableUploadParser.parseContentRange("bytes 0-1023/4096"));
+		for (String e : new String[] { null, "bytes 10-5/100", "bytes 0-100/100", "items 0-1/2", "bytes a-b/c" }) {
+			try {
+				ResumableUploadParser.parseContentRange(e);
+				fail(e);
+			} catch (FileUploadParserException ex) {
+			}
+		}
+	}
+
+	@Test(expected = ThresholdException.class)
+	public void testMaxContentLength() throws IOException {
+		fileFactory.setMaxContentLength(content.length - 1);
+		config = fileFactory.getConfig();
+		parser(null, 0, 100, body(0, 100)).parseList();
+	}
+
+	@Test
+	public void testQuota() throws IOException {
+		DiskQuota quota = new DiskQuota(content.length);
+		fileFactory.setDiskQuota(quota);
+		config = fileFactory.getConfig();
+		ResumableUploadParser parser = parser(null, 0, 50000, body(0, 50000));
+		parser.parseList();
+		// the session file is charged with the whole length
+		assertEquals(content.length, quota.getReserved());
+		try {
+			parser(null, 0, 100, body(0, 100)).parseList();
+			fail();
+		} catch (ThresholdException e) {
+		}
+
+		List<MultiPart> parts = parser(parser.getUploadId(), 50000, 100000, body(50000, 100000)).parseList();
+		assertEquals(content.length, quota.getReserved());
+		assertTrue(parts.get(1).toFile(new File(repository, "a.bin").getPath()));
+		assertEquals(0, quota.getReserved());
+	}
+
+	@Test
+	public void testAdmission() throws IOException {
+		final String body = UploadFixtures.body(UploadFixtures.filePart("file1", "a.bin", "application/octet-stream", "0123456789"));
+		DiskQuota quota = new DiskQuota(body.length() - 1);
+		fileFactory.setDiskQuota(quota);
+		SimpleHttpServletRequestMock request = new SimpleHttpServletRequestMock(new ByteArrayInputStream(body.getBytes("ISO-8859-1"))) {
+			@Override
+			public String getHeader(String name) {
+				return name.equals("Content-Range") ? "bytes 0-9/10" : super.getHeader(name);
+			}
+		};
+		// the request is larger than the quota
+		try {
+			FastUploadParser.parseResumable(request, fileFactory, store);
+			fail();
+		} catch (ThresholdException e) {
+		}
+		assertEquals(0, quota.getReserved());
+
+		fileFactory.setDiskQuota(quota = new DiskQuota(body.length()));
+		request = new SimpleHttpServletRequestMock(new ByteArrayInputStream(body.getBytes("ISO-8859-1"))) {
+			@Override
+			public String getHeader(String name) {
+				return name.equals("Content-Range") ? "bytes 0-9/20" : super.getHeader(name);
+			}
+		};
+		ResumableUploadParser parser = FastUploadParser.parseResumable(request, fileFactory, store);
+		assertEquals(body.length(), quota.getReserved());
+		parser.parseList();
+		// the rest of the request is released, the session file is charged
+		assertEquals(20, quota.getReserved());
+	}
+
+	@Test(expected = FileUploadParserException.class)
+	public void testUnknownSession() throws IOException {
+		parser("nosuchsession", 0, 100, body(0, 100)).parseList();
+	}
+}
@@ -53,4 +53,16 @@ public class UploadChunkTest {
 		assertEquals(header.entrySet().size(), 1);
 	}
 
+	@Test
+	public void testParseContentHeader() {
+		byte[] buffer = ("content-disposition: form-data; name=\"a\\\"b\"; filename=\"C:\\Users\\hosts\"\r\n"
+				+ "X-Ignored: foo\r\n" + "CONTENT-TYPE: multipart/mixed; boundary=BbC04y\r\n").getBytes();
+		ContentHeaderMap header = uploadChunk.parseContentHeader(buffer, 0, buffer.length);
+		assertEquals("a\"b", header.getName());
+		assertEquals("hosts", header.getFileName());
+		assertEquals("multipart/mixed", header.getContentType());
+		assertEquals("BbC04y", new String(header.getSubBoundary()));
+		assertEquals(5, header.size());
+	}
+
 }
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class UploadConfigTest {
+
+	private static final String BOUNDARY = "--AaB03x";
+
+	private static final String BODY = BOUNDARY + "\r\nContent-Disposition: form-data; name=\"text1\"\r\n\r\nabcde\r\n" + BOUNDARY
+			+ "\r\nContent-Disposition: form-data; name=\"file1\"; filename=\"a.exe\"\r\nContent-Type: application/octet-stream\r\n\r\nMZ\r\n"
+			+ BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file2\"; filename=\"a.png\"\r\nContent-Type: image/png\r\n\r\npng\r\n"
+			+ BOUNDARY + "--\r\n";
+
+	@Test
+	public void testCompiled() {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setAllowedTypes("image/png, text/plain");
+		UploadConfig config = fileFactory.getConfig();
+		assertSame(config, fileFactory.getConfig());
+		assertTrue(config.getAllowedTypes().contains("text/plain"));
+
+		fileFactory.setThreshold(100);
+		assertNotSame(config, fileFactory.getConfig());
+		assertEquals(0, config.getThreshold());
+		assertEquals(100, fileFactory.getConfig().getThreshold());
+	}
+
+	@Test
+	public void testShared() throws Exception {
+		FileFactory fileFactory = FileFactory.getInstance("ISO-8859-1");
+		fileFactory.setAllowedTypes("image/png");
+		final UploadConfig config = fileFactory.getConfig();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<UploadContext>> futures = new ArrayList<Future<UploadContext>>();
+			for (int i = 0; i < 64; i++) {
+				futures.add(executor.submit(new Callable<UploadContext>() {
+					public UploadContext call() throws Exception {
+						UploadContext context = new UploadContext(config, "UTF-8");
+						List<MultiPart> parts = new StreamUploadParser(new ByteArrayInputStream(BODY.getBytes("ISO-8859-1")), context,
+								BOUNDARY.getBytes()).parseList();
+						assertEquals(2, parts.size());
+						return context;
+					}
+				}));
+			}
+			for (Future<UploadContext> future : futures) {
+				UploadContext context = future.get();
+				assertEquals(1, context.getRejectedParts().getCount());
+				assertEquals("UTF-8", context.getEncoding());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertNull(fileFactory.getEncoding());
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload.bench;
+
+import java.util.Random;
+
+import net.sourceforge.fastupload.util.BoundaryFinder;
+import net.sourceforge.fastupload.util.BoundaryFinder.Engine;
+import net.sourceforge.fastupload.util.UploadChunk;
+
+/**
+ * Compare scanning throughput of {@link BoundaryFinder} engines, run it with
+ * <code>java -cp target/classes:target/test-classes net.sourceforge.fastupload.bench.BoundaryFinderBenchmark</code>
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class BoundaryFinderBenchmark {
+
+	private static final String[] BOUNDARIES = { "-----------------------------1437360015666227002297487156",
+			"------WebKitFormBoundary7MA4YWxkTrZu0gW", "--------------------------d74496d66958873e" };
+
+	public static void main(String[] args) {
+		int size = 1 << 20;
+		Random random = new Random(2012);
+		byte[] binary = new byte[size];
+		random.nextBytes(binary);
+		byte[] csv = new byte[size];
+		for (int i = 0; i < size; i++) {
+			csv[i] = (byte) (i % 80 == 79 ? '\n' : i % 8 == 7 ? ',' : '0' + random.nextInt(10));
+		}
+
+		for (String b : BOUNDARIES) {
+			BoundaryFinder bm = new BoundaryFinder(b.getBytes(), Engine.BOYER_MOORE);
+			BoundaryFinder ws = new BoundaryFinder(b.getBytes(), Engine.WORD_SCAN);
+			BoundaryFinder selected = UploadChunk.createFinder(b.getBytes());
+			System.out.println(b);
+			System.out.format("  binary  boyer-moore %8.1f MB/s, word-scan %8.1f MB/s, selected %8.1f MB/s%n", run(bm, binary, false),
+					run(ws, binary, false), run(selected, binary, true));
+			System.out.format("  numeric boyer-moore %8.1f MB/s, word-scan %8.1f MB/s, selected %8.1f MB/s%n", run(bm, csv, false),
+					run(ws, csv, false), run(selected, csv, false));
+		}
+	}
+
+	/**
+	 * @param binary
+	 *            tell the finder the content is binary as the parser does
+	 */
+	private static double run(BoundaryFinder finder, byte[] buffer, boolean binary) {
+		for (int i = 0; i < 500; i++)
+			scan(finder, buffer, binary);
+		int rounds = 1000;
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			scan(finder, buffer, binary);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return rounds * (buffer.length / 1048576.0) / seconds;
+	}
+
+	/**
+	 * scan the buffer in 8K chunks as the stream parser does
+	 */
+	private static int scan(BoundaryFinder finder, byte[] buffer, boolean binary) {
+		int found = 0;
+		for (int off = 0; off < buffer.length; off += 0x2000) {
+			if (finder.indexOf(buffer, off, Math.min(buffer.length, off + 0x2000), binary) != -1)
+				found++;
+		}
+		return found;
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload.bench;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+
+import net.sourceforge.fastupload.ContentHeaderMap;
+import net.sourceforge.fastupload.util.UploadChunk;
+
+/**
+ * Compare the byte level content header parsing of {@link UploadChunk} with
+ * the former regular expression splitting, run it with
+ * <code>java -cp target/classes:target/test-classes net.sourceforge.fastupload.bench.HeaderParserBenchmark</code>
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public class HeaderParserBenchmark {
+
+	private static final String[] HEADERS = { "Content-Disposition: form-data; name=\"field_17\"\r\n",
+			"Content-Disposition: form-data; name=\"photo\"; filename=\"IMG_20120318_101010.jpg\"\r\nContent-Type: image/jpeg\r\n" };
+
+	public static void main(String[] args) throws UnsupportedEncodingException {
+		UploadChunk chunk = new UploadChunk(null, "UTF-8");
+		for (String h : HEADERS) {
+			byte[] buffer = h.getBytes("UTF-8");
+			System.out.println(h.substring(0, h.indexOf('\r')));
+			System.out.format("  regex split %10.0f headers/s%n", run(null, buffer));
+			System.out.format("  tokenizer   %10.0f headers/s%n", run(chunk, buffer));
+		}
+	}
+
+	private static double run(UploadChunk chunk, byte[] buffer) throws UnsupportedEncodingException {
+		int rounds = 2000000;
+		int sink = 0;
+		for (int i = 0; i < rounds; i++)
+			sink += parse(chunk, buffer).size();
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			sink += parse(chunk, buffer).size();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (sink == 0)
+			System.out.println();
+		return rounds / seconds;
+	}
+
+	private static HashMap<String, String> parse(UploadChunk chunk, byte[] buffer) throws UnsupportedEncodingException {
+		return chunk == null ? regexParse(buffer) : chunk.parseContentHeader(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * the content header parsing before the tokenizer, decode each line and
+	 * split it with regular expressions
+	 */
+	private static HashMap<String, String> regexParse(byte[] buffer) throws UnsupportedEncodingException {
+		ContentHeaderMap map = new ContentHeaderMap();
+		for (int s = 0, p; s < buffer.length; s = p + 1) {
+			for (p = s; p < buffer.length && buffer[p] != 0x0a;)
+				p++;
+			String line = new String(buffer, s, p - s, "UTF-8");
+			for (String sec : line.split(";\\s")) {
+				String[] vals = sec.split(":\\s|(=\")");
+				if (vals.length > 1)
+					map.put(vals[0].trim(), vals[1].trim().replaceAll("\"", ""));
+			}
+		}
+		return map;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package net.sourceforge.fastupload.mock;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * 
+ *  @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ *
+ */
+public class SimpleAsyncContextMock implements AsyncContext {
+
+	private ServletRequest request;
+
+	private boolean completed;
+
+	public SimpleAsyncContextMock(ServletRequest request) {
+		this.request = request;
+	}
+
+	public ServletRequest getRequest() {
+		return request;
+	}
+
+	public ServletResponse getResponse() {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	public boolean hasOriginalRequestAndResponse() {
+		return true;
+	}
+
+	public void dispatch() {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public void dispatch(String path) {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public void dispatch(ServletContext context, String path) {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public void complete() {
+		completed = true;
+	}
+
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public void start(Runnable run) {
+		run.run();
+	}
+
+	public void addListener(AsyncListener listener) {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	public void setTimeout(long timeout) {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public long getTimeout() {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+}
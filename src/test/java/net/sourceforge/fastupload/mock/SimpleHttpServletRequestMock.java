@@ -30,11 +30,23 @@ import java.util.Hashtable;
 import java.util.Locale;
 import java.util.Map;
 
+import java.util.Collection;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
 import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
 
 /**
  * 
@@ -47,6 +59,8 @@ public class SimpleHttpServletRequestMock implements HttpServletRequest {
 	
 	private Hashtable<String, String> headers = new Hashtable<String, String>();
 
+	private AsyncContext asyncContext;
+
 	public SimpleHttpServletRequestMock(InputStream inputStream ) throws IOException {
 		this.inputStream = inputStream;
 		headers.put("Content-type", "multipart/form-data; boundary=---------------------------1437360015666227002297487156");
@@ -319,12 +333,83 @@ public class SimpleHttpServletRequestMock implements HttpServletRequest {
 		// TODO Auto-generated method stub
 		return false;
 	}
+
+	public ServletContext getServletContext() {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	public AsyncContext startAsync() throws IllegalStateException {
+		asyncContext = new SimpleAsyncContextMock(this);
+		return asyncContext;
+	}
+
+	public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) throws IllegalStateException {
+		return startAsync();
+	}
+
+	public boolean isAsyncStarted() {
+		return asyncContext != null;
+	}
+
+	public boolean isAsyncSupported() {
+		return true;
+	}
+
+	public AsyncContext getAsyncContext() {
+		return asyncContext;
+	}
+
+	public DispatcherType getDispatcherType() {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	public long getContentLengthLong() {
+		return getContentLength();
+	}
+
+	public String changeSessionId() {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	public boolean authenticate(HttpServletResponse response) throws IOException, ServletException {
+		// TODO Auto-generated method stub
+		return false;
+	}
+
+	public void login(String username, String password) throws ServletException {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public void logout() throws ServletException {
+		// TODO Auto-generated method stub
+		
+	}
+
+	public Collection<Part> getParts() throws IOException, ServletException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	public Part getPart(String name) throws IOException, ServletException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
+	public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws IOException, ServletException {
+		// TODO Auto-generated method stub
+		return null;
+	}
 }
 
 class MockServletInputStream extends ServletInputStream{
 
 	private InputStream inputStream;
 	
+	private boolean finished;
 	
 	public MockServletInputStream(InputStream inputStream) {
 		this.inputStream = inputStream;
@@ -337,12 +422,36 @@ class MockServletInputStream extends ServletInputStream{
 	
 	@Override
 	public int read(byte[] buff, int offset, int len)  throws IOException{
-		return inputStream.read(buff, offset, len);
+		int c = inputStream.read(buff, offset, len);
+		finished = c == -1;
+		return c;
 	}
 	
 	@Override
 	public int read(byte[] buff) throws IOException {
-		return inputStream.read(buff);
+		return read(buff, 0, buff.length);
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public boolean isReady() {
+		return true;
+	}
+
+	/**
+	 * notify the listener in the calling thread, as a container does when all
+	 * bytes arrived
+	 */
+	public void setReadListener(ReadListener readListener) {
+		try {
+			readListener.onDataAvailable();
+			if (finished)
+				readListener.onAllDataRead();
+		} catch (IOException e) {
+			readListener.onError(e);
+		}
 	}
 	
 }
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.sourceforge.fastupload.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Temporary repositories and multipart bodies shared by the tests, the
+ * bodies are split by the boundary of {@link SimpleHttpServletRequestMock}.
+ * 
+ * @author <a href="mailto:link.qian@yahoo.com">Link Qian</a>
+ * 
+ */
+public final class UploadFixtures {
+
+	public static final String BOUNDARY = "---------------------------1437360015666227002297487156";
+
+	/**
+	 * content of a file part
+	 */
+	public static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+	private UploadFixtures() {
+	}
+
+	/**
+	 * @return a new empty directory in the temporary directory
+	 */
+	public static File createRepository(String prefix) throws IOException {
+		File repository = File.createTempFile(prefix, "");
+		repository.delete();
+		repository.mkdir();
+		return repository;
+	}
+
+	/**
+	 * delete the repository and all files in it
+	 */
+	public static void deleteRepository(File repository) {
+		File[] files = repository.listFiles();
+		if (files != null)
+			for (File file : files)
+				deleteRepository(file);
+		repository.delete();
+	}
+
+	public static String textPart(String name, String value) {
+		return "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n";
+	}
+
+	public static String filePart(String name, String fileName, String contentType, String content) {
+		return "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName
+				+ "\"\r\nContent-Type: " + contentType + "\r\n\r\n" + content + "\r\n";
+	}
+
+	/**
+	 * @return the body of the parts and the close boundary
+	 */
+	public static String body(String... parts) {
+		StringBuilder sb = new StringBuilder();
+		for (String part : parts)
+			sb.append(part);
+		return sb.append("--").append(BOUNDARY).append("--\r\n").toString();
+	}
+
+	/**
+	 * @return a request of the body in ISO-8859-1
+	 */
+	public static HttpServletRequest request(String body) throws IOException {
+		return new SimpleHttpServletRequestMock(new ByteArrayInputStream(body.getBytes("ISO-8859-1")));
+	}
+}